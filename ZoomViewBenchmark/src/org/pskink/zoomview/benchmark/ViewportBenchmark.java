@@ -0,0 +1,105 @@
+package org.pskink.zoomview.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.pskink.zoomview.view.Viewport;
+
+/**
+ * Throughput of the pan, zoom and fling step paths of the ZoomView
+ * {@link Viewport}. Run main() to get ops/s together with the GC profiler's
+ * allocations per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportBenchmark {
+    private static final float MAX_SCALE = 1;
+    // ZoomView.OVERSCROLL and OVERSCROLL_RESISTANCE
+    private static final float OVERSCROLL = 0.1f;
+    private static final float OVERSCROLL_RESISTANCE = 0.5f;
+
+    // content size, e.g. a 20000x15000 scan or a 2x1.5 screens TestDrawable
+    @Param({"20000x15000", "2160x2880"})
+    public String content;
+
+    private Viewport mViewport;
+    private int mStep;
+
+    @Setup
+    public void setup() {
+        int x = content.indexOf('x');
+        float w = Float.parseFloat(content.substring(0, x));
+        float h = Float.parseFloat(content.substring(x + 1));
+        Viewport v = new Viewport();
+        v.setContentSize(w, h);
+        v.setScreenSize(1080, 1920);
+        float minScale = Math.min(1080 / w, 1920 / h);
+        v.setScaleRange(minScale, MAX_SCALE);
+        v.reset(minScale);
+        // start zoomed in, so panning is not centered away
+        v.setFocalPoint(w / 2, h / 2, 0.5f, 0.5f);
+        v.setZoom(MAX_SCALE, true);
+        mViewport = v;
+    }
+
+    @Benchmark
+    public float pan() {
+        // back and forth so the window stays inside the content most of the time
+        float d = (mStep++ & 64) == 0? 12 : -12;
+        mViewport.scroll(d, d * 0.5f, OVERSCROLL, OVERSCROLL_RESISTANCE);
+        return mViewport.getTransX();
+    }
+
+    @Benchmark
+    public float zoom() {
+        // ZoomView.mScaleGestureListener: onScaleBegin + onScale
+        Viewport v = mViewport;
+        float factor = (mStep++ & 32) == 0? 1.02f : 1 / 1.02f;
+        float focusX = v.getScreenWidth() * 0.3f;
+        float focusY = v.getScreenHeight() * 0.6f;
+        v.setFocalPoint(v.toContentX(focusX), v.toContentY(focusY),
+                focusX / v.getScreenWidth(), focusY / v.getScreenHeight());
+        v.setZoom(v.getScale() * factor, true);
+        return v.getScaleX();
+    }
+
+    @Benchmark
+    public void flingStep(Blackhole bh) {
+        // ZoomView.computeScroll for one scroller step across the fling bounds
+        Viewport v = mViewport;
+        float maxX = v.getContentWidth() - (v.getRight() - v.getLeft());
+        float maxY = v.getContentHeight() - (v.getBottom() - v.getTop());
+        int i = mStep++ & 255;
+        v.offsetTo(maxX * i / 255, maxY * i / 255, true);
+        bh.consume(v.getTransX());
+        bh.consume(v.getTransY());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ViewportBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -14,6 +14,18 @@ public final class R {
 or to a theme attribute in the form "<code>?[<i>package</i>:][<i>type</i>:]<i>name</i></code>".
          */
         public static final int src=0x7f010000;
+        /**  Min scale, 0 for the scale of the fit mode 
+         <p>Must be a floating point value, such as "<code>1.2</code>".
+         */
+        public static final int minScale=0x7f010001;
+        /**  Max scale 
+         <p>Must be a floating point value, such as "<code>1.2</code>".
+         */
+        public static final int maxScale=0x7f010002;
+        /**  How the content is initially fitted into the view 
+         <p>Must be one of the following constant values.</p>
+         */
+        public static final int fitMode=0x7f010003;
     }
     public static final class drawable {
         public static final int ic_launcher=0x7f020000;
@@ -24,6 +36,7 @@ or to a theme attribute in the form "<code>?[<i>package</i>:][<i>type</i>:]<i>na
         public static final int small=0x7f040001;
         public static final int tall=0x7f040002;
         public static final int wide=0x7f040003;
+        public static final int zoom=0x7f040005;
     }
     public static final class menu {
         public static final int menu=0x7f030000;
@@ -36,11 +49,17 @@ or to a theme attribute in the form "<code>?[<i>package</i>:][<i>type</i>:]<i>na
            <colgroup align="left" />
            <tr><th>Attribute</th><th>Description</th></tr>
            <tr><td><code>{@link #XoomView_src org.pskink.zoomview:src}</code></td><td> Drawable to use </td></tr>
+           <tr><td><code>{@link #XoomView_minScale org.pskink.zoomview:minScale}</code></td><td> Min scale, 0 for the scale of the fit mode </td></tr>
+           <tr><td><code>{@link #XoomView_maxScale org.pskink.zoomview:maxScale}</code></td><td> Max scale </td></tr>
+           <tr><td><code>{@link #XoomView_fitMode org.pskink.zoomview:fitMode}</code></td><td> How the content is initially fitted into the view </td></tr>
            </table>
            @see #XoomView_src
+           @see #XoomView_minScale
+           @see #XoomView_maxScale
+           @see #XoomView_fitMode
          */
         public static final int[] XoomView = {
-            0x7f010000
+            0x7f010000, 0x7f010001, 0x7f010002, 0x7f010003
         };
         /**
           <p>
@@ -54,5 +73,17 @@ or to a theme attribute in the form "<code>?[<i>package</i>:][<i>type</i>:]<i>na
           @attr name org.pskink.zoomview:src
         */
         public static final int XoomView_src = 0;
+        /**
+          @attr name org.pskink.zoomview:minScale
+        */
+        public static final int XoomView_minScale = 1;
+        /**
+          @attr name org.pskink.zoomview:maxScale
+        */
+        public static final int XoomView_maxScale = 2;
+        /**
+          @attr name org.pskink.zoomview:fitMode
+        */
+        public static final int XoomView_fitMode = 3;
     };
 }
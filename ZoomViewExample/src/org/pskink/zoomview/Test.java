@@ -1,9 +1,15 @@
 package org.pskink.zoomview;
 
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Random;
 
+import org.pskink.zoomview.view.ImagePyramid;
+import org.pskink.zoomview.view.StreamingDrawable;
+import org.pskink.zoomview.view.StreamingDrawable.OnLoadListener;
+import org.pskink.zoomview.view.TileStore;
+import org.pskink.zoomview.view.TiledDrawable;
 import org.pskink.zoomview.view.ZoomView;
 
 import android.app.Activity;
@@ -25,6 +31,7 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader.TileMode;
 import android.graphics.drawable.Drawable;
+import android.graphics.drawable.Drawable.ConstantState;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -33,15 +40,20 @@ import android.view.MenuItem;
 import android.view.Window;
 import android.widget.Toast;
 
-public class Test extends Activity {
+public class Test extends Activity implements OnLoadListener {
     private static final float FACTOR_X = 2f;
     private static final float FACTOR_Y = 1.5f;
+    private static final long TILE_STORE_BYTES = 64 * 1024 * 1024;
 
     private final static String TAG = "Test";
+    private final static String KEY_CONTENT_ID = "contentId";
 
     private Drawable drawable;
+    // picked image whose size is not known yet
+    private StreamingDrawable loading;
     private ZoomView view;
     private DisplayMetrics dm;
+    private TileStore store;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -50,10 +62,66 @@ public class Test extends Activity {
 
         dm = getResources().getDisplayMetrics();
         view = new ZoomView(this);
-        drawable = new TestDrawable(dm.widthPixels * FACTOR_X, dm.heightPixels * FACTOR_Y);
+        view.setId(R.id.zoom);
+        // TestDrawable's ComposeShader is expensive to draw on every gesture frame
+        view.setGestureSnapshotEnabled(true);
+        view.setMinimapEnabled(true);
+        Retained retained = (Retained) getLastNonConfigurationInstance();
+        ConstantState state = retained != null? retained.drawable.getConstantState() : null;
+        if (state != null) {
+            // same pyramid and tile cache, nothing is decoded again
+            drawable = state.newDrawable();
+            // only lets go of its share of them
+            recycle(retained.drawable);
+        } else if (retained != null) {
+            drawable = retained.drawable;
+        } else {
+            drawable = new TestDrawable(dm.widthPixels * FACTOR_X, dm.heightPixels * FACTOR_Y);
+        }
+        if (drawable instanceof StreamingDrawable) {
+            // still loading, report to this Activity from now on
+            ((StreamingDrawable) drawable).setOnLoadListener(this);
+        }
+        if (retained != null && retained.loading != null) {
+            loading = retained.loading;
+            loading.setOnLoadListener(this);
+        }
+        if (retained != null && savedInstanceState != null) {
+            view.setContentId(savedInstanceState.getString(KEY_CONTENT_ID));
+        }
         view.setImageDrawable(drawable);
         setContentView(view);
     }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(KEY_CONTENT_ID, view.getContentId());
+    }
+
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        // the new Activity sets itself as the listener
+        if (drawable instanceof StreamingDrawable) {
+            ((StreamingDrawable) drawable).setOnLoadListener(null);
+        }
+        if (loading != null) {
+            loading.setOnLoadListener(null);
+        }
+        Retained retained = new Retained();
+        retained.drawable = drawable;
+        retained.loading = loading;
+        return retained;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (isFinishing() && loading != null) {
+            loading.recycle();
+            loading = null;
+        }
+    }
     
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -89,7 +157,8 @@ public class Test extends Activity {
                 return super.onOptionsItemSelected(item);
         }
         if (id != R.id.image) {
-            view.setImageDrawable(drawable);
+            view.setContentId(null);
+            setDrawable(drawable);
         }
         return super.onOptionsItemSelected(item);
     }
@@ -97,17 +166,87 @@ public class Test extends Activity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (resultCode == RESULT_OK) {
+            File spool = null;
             try {
+                final String key = data.getData().toString();
+                if (store == null) {
+                    store = new TileStore(new File(getCacheDir(), "tiles"), TILE_STORE_BYTES);
+                }
+                spool = File.createTempFile("spool", null, getCacheDir());
+                // opened last: from here on the StreamingDrawable closes it
                 InputStream stream = getContentResolver().openInputStream(data.getData());
-                drawable = Drawable.createFromStream(stream, data.getData().toString());
-                view.setImageDrawable(drawable);
-            } catch (FileNotFoundException e) {
+                // shown as soon as the header is read, sharpened while the rest arrives;
+                // tiles are decoded only once: reopening the image reads them from the store
+                if (loading != null) {
+                    // picked again before the size of the previous one was known
+                    loading.recycle();
+                }
+                loading = new StreamingDrawable(stream, spool, this) {
+                    @Override
+                    protected ImagePyramid createPyramid(File spool) throws IOException {
+                        return store.wrap(super.createPyramid(spool), key, spool.length());
+                    }
+                };
+                view.setContentId(key);
+            } catch (IOException e) {
+                if (spool != null) {
+                    spool.delete();
+                }
                 Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
             }
         }
     }
 
-    class TestDrawable extends Drawable {
+    @Override
+    public void onSizeKnown(StreamingDrawable d) {
+        if (d == loading) {
+            loading = null;
+        }
+        setDrawable(d);
+    }
+
+    @Override
+    public void onLoaded(StreamingDrawable d) {
+        Log.d(TAG, "onLoaded " + d.getIntrinsicWidth() + "x" + d.getIntrinsicHeight());
+    }
+
+    @Override
+    public void onError(StreamingDrawable d, IOException e) {
+        Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+        if (d == loading) {
+            loading = null;
+        }
+        d.recycle();
+    }
+
+    private void setDrawable(Drawable d) {
+        Drawable old = drawable;
+        drawable = d;
+        view.setImageDrawable(drawable);
+        if (old != d) {
+            recycle(old);
+        }
+    }
+
+    private static void recycle(Drawable d) {
+        if (d instanceof TiledDrawable) {
+            ((TiledDrawable) d).recycle();
+        } else if (d instanceof StreamingDrawable) {
+            ((StreamingDrawable) d).recycle();
+        }
+    }
+
+    /**
+     * Kept across configuration changes: the shown drawable, replaced by a new
+     * drawable of its ConstantState if it has one, and the picked image still
+     * loading.
+     */
+    static class Retained {
+        Drawable drawable;
+        StreamingDrawable loading;
+    }
+
+    static class TestDrawable extends Drawable {
 
         private int w;
         private int h;
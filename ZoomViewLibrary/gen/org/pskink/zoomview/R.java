@@ -14,6 +14,18 @@ public final class R {
 or to a theme attribute in the form "<code>?[<i>package</i>:][<i>type</i>:]<i>name</i></code>".
          */
         public static int src=0x7f010000;
+        /**  Min scale, 0 for the scale of the fit mode 
+         <p>Must be a floating point value, such as "<code>1.2</code>".
+         */
+        public static int minScale=0x7f010001;
+        /**  Max scale 
+         <p>Must be a floating point value, such as "<code>1.2</code>".
+         */
+        public static int maxScale=0x7f010002;
+        /**  How the content is initially fitted into the view 
+         <p>Must be one of the following constant values.</p>
+         */
+        public static int fitMode=0x7f010003;
     }
     public static final class styleable {
         /** Attributes that can be used with a XoomView.
@@ -23,11 +35,17 @@ or to a theme attribute in the form "<code>?[<i>package</i>:][<i>type</i>:]<i>na
            <colgroup align="left" />
            <tr><th>Attribute</th><th>Description</th></tr>
            <tr><td><code>{@link #XoomView_src org.pskink.zoomview:src}</code></td><td> Drawable to use </td></tr>
+           <tr><td><code>{@link #XoomView_minScale org.pskink.zoomview:minScale}</code></td><td> Min scale, 0 for the scale of the fit mode </td></tr>
+           <tr><td><code>{@link #XoomView_maxScale org.pskink.zoomview:maxScale}</code></td><td> Max scale </td></tr>
+           <tr><td><code>{@link #XoomView_fitMode org.pskink.zoomview:fitMode}</code></td><td> How the content is initially fitted into the view </td></tr>
            </table>
            @see #XoomView_src
+           @see #XoomView_minScale
+           @see #XoomView_maxScale
+           @see #XoomView_fitMode
          */
         public static final int[] XoomView = {
-            0x7f010000
+            0x7f010000, 0x7f010001, 0x7f010002, 0x7f010003
         };
         /**
           <p>
@@ -41,5 +59,17 @@ or to a theme attribute in the form "<code>?[<i>package</i>:][<i>type</i>:]<i>na
           @attr name org.pskink.zoomview:src
         */
         public static final int XoomView_src = 0;
+        /**
+          @attr name org.pskink.zoomview:minScale
+        */
+        public static final int XoomView_minScale = 1;
+        /**
+          @attr name org.pskink.zoomview:maxScale
+        */
+        public static final int XoomView_maxScale = 2;
+        /**
+          @attr name org.pskink.zoomview:fitMode
+        */
+        public static final int XoomView_fitMode = 3;
     };
 }
@@ -0,0 +1,113 @@
+package org.pskink.zoomview.view;
+
+import java.util.ArrayList;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Pool of mutable bitmaps handed back by {@link TileCache} evictions, reused
+ * by decoders through {@link BitmapFactory.Options#inBitmap}. Thread safe.
+ */
+public class BitmapPool {
+    private final static String TAG = "BitmapPool";
+
+    private final ArrayList<Bitmap> mBitmaps;
+    private final long mMaxBytes;
+    private long mBytes;
+
+    public BitmapPool(long maxBytes) {
+        mBitmaps = new ArrayList<Bitmap>();
+        mMaxBytes = maxBytes;
+    }
+
+    public static boolean isSupported() {
+        // BitmapRegionDecoder honors inBitmap since JELLY_BEAN
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * Returns a pooled bitmap that can hold width x height pixels of the given
+     * config, or null if there is none.
+     */
+    public synchronized Bitmap get(int width, int height, Config config) {
+        boolean anySize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap b = mBitmaps.get(i);
+            if (b.getConfig() != config) {
+                continue;
+            }
+            boolean fits = anySize?
+                    b.getWidth() >= width && b.getHeight() >= height :
+                    b.getWidth() == width && b.getHeight() == height;
+            if (fits) {
+                mBitmaps.remove(i);
+                mBytes -= getByteCount(b);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes ownership of bitmap: it is either kept for reuse or recycled when
+     * the pool is full.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = getByteCount(bitmap);
+        if (!isSupported() || !bitmap.isMutable() || mBytes + bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.add(bitmap);
+        mBytes += bytes;
+    }
+
+    public synchronized void clear() {
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            mBitmaps.get(i).recycle();
+        }
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Prepares options for decoding a width x height tile, reusing a pooled
+     * bitmap when possible. Returns true if options.inBitmap was set.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public boolean prepare(BitmapFactory.Options options, int width, int height) {
+        if (!isSupported()) {
+            return false;
+        }
+        Config config = options.inPreferredConfig != null? options.inPreferredConfig : Config.ARGB_8888;
+        options.inMutable = true;
+        options.inBitmap = get(width, height, config);
+        return options.inBitmap != null;
+    }
+
+    /**
+     * Returns options.inBitmap to the pool, used when the decoder rejected it.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void release(BitmapFactory.Options options) {
+        if (isSupported() && options.inBitmap != null) {
+            put(options.inBitmap);
+            options.inBitmap = null;
+        }
+    }
+
+    private static int getByteCount(Bitmap b) {
+        return b.getRowBytes() * b.getHeight();
+    }
+}
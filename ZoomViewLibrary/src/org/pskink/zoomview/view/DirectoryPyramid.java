@@ -0,0 +1,86 @@
+package org.pskink.zoomview.view;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * ImagePyramid loaded from precomputed tiles stored in a directory:
+ *
+ * <pre>
+ * dir/pyramid.properties    width, height, tileSize and optionally extension (default jpg)
+ * dir/&lt;level&gt;/&lt;col&gt;_&lt;row&gt;.&lt;extension&gt;
+ * </pre>
+ *
+ * where level 0 holds the full resolution tiles and level n the tiles of the
+ * image downscaled by 2^n.
+ */
+public class DirectoryPyramid extends ImagePyramid {
+    private final static String TAG = "DirectoryPyramid";
+    public static final String DESCRIPTOR = "pyramid.properties";
+
+    private File mDir;
+    private String mExtension;
+    private int mWidth;
+    private int mHeight;
+    private int mTileSize;
+    private int mLevelCount;
+
+    public DirectoryPyramid(File dir) throws IOException {
+        Properties p = new Properties();
+        InputStream is = new FileInputStream(new File(dir, DESCRIPTOR));
+        try {
+            p.load(is);
+        } finally {
+            is.close();
+        }
+        try {
+            mWidth = Integer.parseInt(p.getProperty("width"));
+            mHeight = Integer.parseInt(p.getProperty("height"));
+            mTileSize = Integer.parseInt(p.getProperty("tileSize"));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid " + DESCRIPTOR + " in " + dir + ": " + e.getMessage());
+        }
+        if (mWidth <= 0 || mHeight <= 0 || mTileSize <= 0) {
+            throw new IOException("invalid " + DESCRIPTOR + " in " + dir);
+        }
+        mDir = dir;
+        mExtension = p.getProperty("extension", "jpg");
+        mLevelCount = levelCount(mWidth, mHeight, mTileSize);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    @Override
+    public Bitmap decodeTile(int level, int col, int row, BitmapFactory.Options options) {
+        StringBuilder path = new StringBuilder();
+        path.append(mDir.getPath()).append(File.separatorChar)
+                .append(level).append(File.separatorChar)
+                .append(col).append('_').append(row).append('.').append(mExtension);
+        options.inSampleSize = 1;
+        return BitmapFactory.decodeFile(path.toString(), options);
+    }
+}
@@ -0,0 +1,115 @@
+package org.pskink.zoomview.view;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Calls back once on the next display frame after postFrame(): on the vsync
+ * Choreographer from Jelly Bean, on a main thread Handler every 16 ms before.
+ * Posting again while a frame is pending does nothing, so any number of
+ * updates between two frames end in a single callback.
+ */
+abstract class FrameScheduler {
+    interface Callback {
+        /**
+         * frameTime is in the SystemClock.uptimeMillis() time base.
+         */
+        void doFrame(long frameTime);
+    }
+
+    private final Callback mCallback;
+    private boolean mPosted;
+
+    FrameScheduler(Callback callback) {
+        mCallback = callback;
+    }
+
+    static FrameScheduler create(Callback callback) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return new VsyncScheduler(callback);
+        }
+        return new HandlerScheduler(callback);
+    }
+
+    void postFrame() {
+        if (!mPosted) {
+            mPosted = true;
+            post();
+        }
+    }
+
+    void cancel() {
+        if (mPosted) {
+            mPosted = false;
+            remove();
+        }
+    }
+
+    boolean isPosted() {
+        return mPosted;
+    }
+
+    void dispatch(long frameTime) {
+        mPosted = false;
+        mCallback.doFrame(frameTime);
+    }
+
+    abstract void post();
+
+    abstract void remove();
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class VsyncScheduler extends FrameScheduler implements Choreographer.FrameCallback {
+        private final Choreographer mChoreographer;
+
+        VsyncScheduler(Callback callback) {
+            super(callback);
+            mChoreographer = Choreographer.getInstance();
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatch(frameTimeNanos / 1000000);
+        }
+
+        @Override
+        void post() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        void remove() {
+            mChoreographer.removeFrameCallback(this);
+        }
+    }
+
+    private static class HandlerScheduler extends FrameScheduler implements Runnable {
+        private static final long FRAME_MILLIS = 16;
+
+        private final Handler mHandler;
+
+        HandlerScheduler(Callback callback) {
+            super(callback);
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+
+        @Override
+        public void run() {
+            dispatch(SystemClock.uptimeMillis());
+        }
+
+        @Override
+        void post() {
+            mHandler.postDelayed(this, FRAME_MILLIS);
+        }
+
+        @Override
+        void remove() {
+            mHandler.removeCallbacks(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.pskink.zoomview.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Bitmap snapshot of the content around the visible window, drawn by
+ * {@link ZoomView} in place of the Drawable while a gesture, fling or zoom
+ * animation runs.
+ */
+class GestureSnapshot {
+    private final static String TAG = "GestureSnapshot";
+    // extra content captured on each side, as a fraction of the window size
+    private static final float MARGIN = 0.25f;
+    // recapture when zoomed in that much past the captured resolution
+    private static final float MAX_UPSCALE = 2;
+    // zooming out: content captured around the window, as a multiple of its
+    // size, at a resolution keeping the bitmap as big as with MARGIN
+    private static final float ZOOM_OUT_REACH = 3;
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private Paint mPaint;
+    // content area the snapshot is good for
+    private RectF mCoverage;
+    // content area actually captured (mCoverage clipped to the content)
+    private RectF mCaptured;
+    private RectF mVisible;
+    private Rect mSrc;
+    // resolution of the bitmap, and the view scale when it was captured
+    private float mScale;
+    private float mWindowScale;
+    private boolean mActive;
+
+    GestureSnapshot() {
+        mCanvas = new Canvas();
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mCoverage = new RectF();
+        mCaptured = new RectF();
+        mVisible = new RectF();
+        mSrc = new Rect();
+    }
+
+    boolean isActive() {
+        return mActive;
+    }
+
+    boolean needsCapture(RectF content, RectF window, float scale) {
+        if (!mActive || scale > mScale * MAX_UPSCALE) {
+            return true;
+        }
+        // only the content part of the window has to be captured
+        if (!mVisible.setIntersect(window, content)) {
+            return false;
+        }
+        return mVisible.left < mCaptured.left || mVisible.top < mCaptured.top ||
+                mVisible.right > mCaptured.right || mVisible.bottom > mCaptured.bottom;
+    }
+
+    void capture(Drawable d, RectF content, RectF window, float scale) {
+        // zooming out, a recapture at full resolution would be due every 1.5x
+        boolean zoomingOut = mActive && scale < mWindowScale;
+        float reach = zoomingOut? ZOOM_OUT_REACH : 1 + 2 * MARGIN;
+        float dx = window.width() * (reach - 1) / 2;
+        float dy = window.height() * (reach - 1) / 2;
+        mWindowScale = scale;
+        if (zoomingOut) {
+            scale *= (1 + 2 * MARGIN) / ZOOM_OUT_REACH;
+        }
+        mCoverage.set(window);
+        mCoverage.inset(-dx, -dy);
+        if (!mCaptured.setIntersect(mCoverage, content)) {
+            mCaptured.setEmpty();
+        }
+        int w = (int) Math.ceil(mCoverage.width() * scale);
+        int h = (int) Math.ceil(mCoverage.height() * scale);
+        if (mBitmap == null || mBitmap.getWidth() < w || mBitmap.getHeight() < h) {
+            recycle();
+            mBitmap = Bitmap.createBitmap(w, h, d.getOpacity() == PixelFormat.OPAQUE?
+                    Config.RGB_565 : Config.ARGB_8888);
+            mCanvas.setBitmap(mBitmap);
+        }
+        mBitmap.eraseColor(0);
+        mSrc.set(0, 0, (int) Math.ceil(mCaptured.width() * scale), (int) Math.ceil(mCaptured.height() * scale));
+
+        if (d instanceof ViewportDrawable) {
+            ((ViewportDrawable) d).setViewport(mCaptured, scale);
+        }
+        int count = mCanvas.save();
+        mCanvas.clipRect(0, 0, mSrc.right, mSrc.bottom);
+        mCanvas.scale(scale, scale);
+        mCanvas.translate(-mCaptured.left, -mCaptured.top);
+        d.draw(mCanvas);
+        mCanvas.restoreToCount(count);
+
+        mScale = scale;
+        mActive = true;
+    }
+
+    /**
+     * Draws the snapshot on a canvas already mapping content coordinates to
+     * the screen.
+     */
+    void draw(Canvas canvas) {
+        canvas.drawBitmap(mBitmap, mSrc, mCaptured, mPaint);
+    }
+
+    void release() {
+        mActive = false;
+    }
+
+    void recycle() {
+        mActive = false;
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.pskink.zoomview.view;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid spatial index over item bounding boxes, stored in primitive
+ * arrays. Queries do not allocate once the result buffer is big enough.
+ */
+class GridIndex {
+    private final static String TAG = "GridIndex";
+    private static final int ITEMS_PER_CELL = 4;
+    private static final int MAX_CELLS = 1 << 16;
+
+    private float[] mBounds;
+    private int mCount;
+    private float mLeft;
+    private float mTop;
+    private float mCellWidth;
+    private float mCellHeight;
+    private int mCols;
+    private int mRows;
+    // items of cell i are mCellItems[mCellStart[i] .. mCellStart[i + 1])
+    private int[] mCellStart;
+    private int[] mCellItems;
+    // query id an item was last reported for, avoids duplicates from items spanning cells
+    private int[] mStamps;
+    private int mQuery;
+    private int[] mResult;
+
+    GridIndex() {
+        mCellStart = new int[2];
+        mCellItems = new int[0];
+        mStamps = new int[0];
+        mResult = new int[16];
+    }
+
+    /**
+     * Indexes count items whose bounds are stored as left, top, right, bottom
+     * quadruples in bounds. The array is referenced, not copied.
+     */
+    void build(float[] bounds, int count) {
+        mBounds = bounds;
+        mCount = count;
+        if (count == 0) {
+            mCols = mRows = 0;
+            return;
+        }
+        float l = Float.MAX_VALUE, t = Float.MAX_VALUE, r = -Float.MAX_VALUE, b = -Float.MAX_VALUE;
+        for (int i = 0; i < count * 4; i += 4) {
+            l = Math.min(l, bounds[i]);
+            t = Math.min(t, bounds[i + 1]);
+            r = Math.max(r, bounds[i + 2]);
+            b = Math.max(b, bounds[i + 3]);
+        }
+        float w = Math.max(r - l, 1);
+        float h = Math.max(b - t, 1);
+        int cells = Math.max(1, Math.min(MAX_CELLS, count / ITEMS_PER_CELL));
+        mCols = Math.max(1, Math.min(cells, Math.round((float) Math.sqrt(cells * w / h))));
+        mRows = Math.max(1, cells / mCols);
+        mLeft = l;
+        mTop = t;
+        mCellWidth = w / mCols;
+        mCellHeight = h / mRows;
+
+        // two passes: count items per cell, then fill
+        int numCells = mCols * mRows;
+        if (mCellStart.length < numCells + 1) {
+            mCellStart = new int[numCells + 1];
+        } else {
+            Arrays.fill(mCellStart, 0);
+        }
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int i4 = i * 4;
+            int c0 = col(bounds[i4]), c1 = col(bounds[i4 + 2]);
+            int r0 = row(bounds[i4 + 1]), r1 = row(bounds[i4 + 3]);
+            for (int row = r0; row <= r1; row++) {
+                for (int col = c0; col <= c1; col++) {
+                    mCellStart[row * mCols + col + 1]++;
+                    total++;
+                }
+            }
+        }
+        for (int i = 1; i <= numCells; i++) {
+            mCellStart[i] += mCellStart[i - 1];
+        }
+        if (mCellItems.length < total) {
+            mCellItems = new int[total];
+        }
+        int[] fill = new int[numCells];
+        for (int i = 0; i < count; i++) {
+            int i4 = i * 4;
+            int c0 = col(bounds[i4]), c1 = col(bounds[i4 + 2]);
+            int r0 = row(bounds[i4 + 1]), r1 = row(bounds[i4 + 3]);
+            for (int row = r0; row <= r1; row++) {
+                for (int col = c0; col <= c1; col++) {
+                    int cell = row * mCols + col;
+                    mCellItems[mCellStart[cell] + fill[cell]++] = i;
+                }
+            }
+        }
+        if (mStamps.length < count) {
+            mStamps = new int[count];
+            mQuery = 0;
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Finds the items whose bounds intersect the given rectangle. Returns their
+     * number, the items are in getResult(), in ascending order.
+     */
+    int query(float left, float top, float right, float bottom) {
+        if (mCount == 0) {
+            return 0;
+        }
+        int c0 = col(left), c1 = col(right);
+        int r0 = row(top), r1 = row(bottom);
+        if (++mQuery == 0) {
+            Arrays.fill(mStamps, 0);
+            mQuery = 1;
+        }
+        final float[] bounds = mBounds;
+        int n = 0;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                int cell = row * mCols + col;
+                for (int j = mCellStart[cell]; j < mCellStart[cell + 1]; j++) {
+                    int item = mCellItems[j];
+                    if (mStamps[item] == mQuery) {
+                        continue;
+                    }
+                    mStamps[item] = mQuery;
+                    int i4 = item * 4;
+                    if (bounds[i4] <= right && bounds[i4 + 2] >= left &&
+                            bounds[i4 + 1] <= bottom && bounds[i4 + 3] >= top) {
+                        if (n == mResult.length) {
+                            mResult = Arrays.copyOf(mResult, n * 2);
+                        }
+                        mResult[n++] = item;
+                    }
+                }
+            }
+        }
+        // keep the items drawing order
+        Arrays.sort(mResult, 0, n);
+        return n;
+    }
+
+    int[] getResult() {
+        return mResult;
+    }
+
+    private int col(float x) {
+        int col = (int) ((x - mLeft) / mCellWidth);
+        return col < 0? 0 : (col >= mCols? mCols - 1 : col);
+    }
+
+    private int row(float y) {
+        int row = (int) ((y - mTop) / mCellHeight);
+        return row < 0? 0 : (row >= mRows? mRows - 1 : row);
+    }
+}
@@ -0,0 +1,97 @@
+package org.pskink.zoomview.view;
+
+/**
+ * Fixed bucket histogram: recording a sample never allocates.
+ */
+public class Histogram {
+    private final static String TAG = "Histogram";
+
+    private final long[] mBounds;
+    private final int[] mCounts;
+    private int mCount;
+    private long mSum;
+    private long mMax;
+
+    /**
+     * bounds are the inclusive upper bounds of the buckets, in ascending order.
+     * Samples above the last bound go to an extra overflow bucket.
+     */
+    public Histogram(long... bounds) {
+        mBounds = bounds.clone();
+        mCounts = new int[bounds.length + 1];
+    }
+
+    public void record(long value) {
+        int i = 0;
+        while (i < mBounds.length && value > mBounds[i]) {
+            i++;
+        }
+        mCounts[i]++;
+        mCount++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public float getMean() {
+        return mCount == 0? 0 : (float) mSum / mCount;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile
+     * (0..100), or getMax() if it falls into the overflow bucket.
+     */
+    public long getPercentile(float percentile) {
+        long rank = (long) Math.ceil(mCount * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < mBounds.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank && seen > 0) {
+                return mBounds[i];
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Returns the number of buckets, including the overflow one.
+     */
+    public int getBucketCount() {
+        return mCounts.length;
+    }
+
+    /**
+     * Returns the upper bound of bucket i, Long.MAX_VALUE for the overflow one.
+     */
+    public long getBucketBound(int i) {
+        return i < mBounds.length? mBounds[i] : Long.MAX_VALUE;
+    }
+
+    public int getBucketValue(int i) {
+        return mCounts[i];
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[n: " + mCount + ", mean: " + getMean() + ", p50: " + getPercentile(50) +
+                ", p90: " + getPercentile(90) + ", p99: " + getPercentile(99) + ", max: " + mMax + "]";
+    }
+}
@@ -0,0 +1,87 @@
+package org.pskink.zoomview.view;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Multi-resolution image model: level 0 is the full resolution image and every
+ * next level halves both dimensions, until the whole image fits in one tile.
+ */
+public abstract class ImagePyramid {
+    private final static String TAG = "ImagePyramid";
+
+    public abstract int getWidth();
+
+    public abstract int getHeight();
+
+    public abstract int getTileSize();
+
+    public abstract int getLevelCount();
+
+    /**
+     * Decodes tile (col, row) of the given level, the returned bitmap is at most
+     * getTileSize() x getTileSize() pixels. Returns null if the tile cannot be
+     * decoded.
+     */
+    public abstract Bitmap decodeTile(int level, int col, int row, BitmapFactory.Options options);
+
+    public void recycle() {
+    }
+
+    /**
+     * Returns the side of a tile of the given level, in level 0 pixels.
+     */
+    public int getTileExtent(int level) {
+        return getTileSize() << level;
+    }
+
+    public int getColumns(int level) {
+        int extent = getTileExtent(level);
+        return (getWidth() + extent - 1) / extent;
+    }
+
+    public int getRows(int level) {
+        int extent = getTileExtent(level);
+        return (getHeight() + extent - 1) / extent;
+    }
+
+    /**
+     * Returns the width in pixels of the bitmap decoded for a tile in column col.
+     */
+    public int getTileWidth(int level, int col) {
+        int extent = getTileExtent(level);
+        int w = Math.min(extent, getWidth() - col * extent);
+        return (w + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Returns the height in pixels of the bitmap decoded for a tile in row row.
+     */
+    public int getTileHeight(int level, int row) {
+        int extent = getTileExtent(level);
+        int h = Math.min(extent, getHeight() - row * extent);
+        return (h + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Returns the coarsest level that still gives at least one image pixel per
+     * screen pixel at the given scale, so the drawn pixels stay near screen size.
+     */
+    public int levelForScale(float scale) {
+        int maxLevel = getLevelCount() - 1;
+        int level = 0;
+        while (level < maxLevel && (2 << level) * scale <= 1) {
+            level++;
+        }
+        return level;
+    }
+
+    static int levelCount(int width, int height, int tileSize) {
+        int side = Math.max(width, height);
+        int levels = 1;
+        while ((tileSize << (levels - 1)) < side) {
+            levels++;
+        }
+        return levels;
+    }
+}
@@ -0,0 +1,209 @@
+package org.pskink.zoomview.view;
+
+import android.view.animation.AnimationUtils;
+
+/**
+ * Float precision replacement of {@link android.widget.Scroller} for content
+ * coordinates. A fling decays exponentially, so it needs no rounding at any
+ * zoom level, and when it runs past the bounds it turns into a critically
+ * damped spring that brings the position back to the edge. springBack() does
+ * the same for a position left past the bounds by a drag.
+ */
+class KineticScroller {
+    private final static String TAG = "KineticScroller";
+
+    // time constant of the fling deceleration, ms
+    private static final float TAU = 325;
+    // spring stiffness, 1 / ms
+    private static final float OMEGA = 0.025f;
+    private static final float E = (float) Math.E;
+
+    private final Axis mX;
+    private final Axis mY;
+    private boolean mFinished;
+
+    private static class Axis {
+        static final int IDLE = 0;
+        static final int FLING = 1;
+        static final int SPRING = 2;
+
+        int mode;
+        long startTime;
+        float start;
+        float velocity;
+        float min;
+        float max;
+        // max distance past min / max
+        float over;
+        float target;
+        float pos;
+        float finalPos;
+        // content pixels too small to show at the current scale
+        float stop = 0.5f;
+
+        void fling(long time, float x, float v, float min, float max, float over) {
+            this.min = min;
+            this.max = max;
+            this.over = over;
+            pos = x;
+            start = x;
+            if (x < min || x > max) {
+                spring(time, x, v, x < min? min : max);
+                return;
+            }
+            mode = v != 0? FLING : IDLE;
+            startTime = time;
+            velocity = v;
+            finalPos = Math.max(min, Math.min(max, x + v * TAU));
+        }
+
+        boolean springBack(long time, float x, float min, float max) {
+            this.min = min;
+            this.max = max;
+            pos = x;
+            start = x;
+            if (x < min || x > max) {
+                spring(time, x, 0, x < min? min : max);
+                return true;
+            }
+            mode = IDLE;
+            finalPos = x;
+            return false;
+        }
+
+        void spring(long time, float x, float v, float edge) {
+            // a critically damped spring moving outwards overshoots by at
+            // most v / (OMEGA * e), keep that within over
+            float maxV = over * OMEGA * E;
+            if (x < edge) {
+                v = Math.max(v, -maxV);
+            } else {
+                v = Math.min(v, maxV);
+            }
+            mode = SPRING;
+            startTime = time;
+            start = x;
+            velocity = v;
+            target = edge;
+            finalPos = edge;
+        }
+
+        boolean update(long time) {
+            float dt = time - startTime;
+            if (mode == FLING) {
+                float e = (float) Math.exp(-dt / TAU);
+                pos = start + velocity * TAU * (1 - e);
+                float v = velocity * e;
+                if (pos < min || pos > max) {
+                    spring(time, pos, v, pos < min? min : max);
+                } else if (Math.abs(v * TAU) < stop) {
+                    // less than half a screen pixel left to travel
+                    mode = IDLE;
+                }
+            } else if (mode == SPRING) {
+                float a = start - target;
+                float b = velocity + OMEGA * a;
+                float e = (float) Math.exp(-OMEGA * dt);
+                pos = target + (a + b * dt) * e;
+                float v = (b - OMEGA * (a + b * dt)) * e;
+                if (Math.abs(pos - target) < stop && Math.abs(v) < stop * OMEGA) {
+                    pos = target;
+                    mode = IDLE;
+                }
+            }
+            return mode != IDLE;
+        }
+    }
+
+    KineticScroller() {
+        mX = new Axis();
+        mY = new Axis();
+        mFinished = true;
+    }
+
+    /**
+     * Sets the scale of the content, the motion stops once it moves less than
+     * half a screen pixel.
+     */
+    void setScale(float scale) {
+        mX.stop = 0.5f / scale;
+        mY.stop = 0.5f / scale;
+    }
+
+    /**
+     * Starts a fling from (x, y) with velocities in content pixels per second,
+     * allowed to overshoot the bounds by overX / overY before springing back.
+     */
+    void fling(float x, float y, float velocityX, float velocityY,
+            float minX, float maxX, float minY, float maxY, float overX, float overY) {
+        long time = AnimationUtils.currentAnimationTimeMillis();
+        mX.fling(time, x, velocityX / 1000, minX, maxX, overX);
+        mY.fling(time, y, velocityY / 1000, minY, maxY, overY);
+        mFinished = mX.mode == Axis.IDLE && mY.mode == Axis.IDLE;
+    }
+
+    /**
+     * Springs (x, y) back into the bounds, returns false if it is already
+     * inside.
+     */
+    boolean springBack(float x, float y, float minX, float maxX, float minY, float maxY) {
+        long time = AnimationUtils.currentAnimationTimeMillis();
+        boolean moving = mX.springBack(time, x, minX, maxX);
+        moving |= mY.springBack(time, y, minY, maxY);
+        mFinished = !moving;
+        return moving;
+    }
+
+    /**
+     * Updates the position for the current frame time, returns false once the
+     * motion has finished.
+     */
+    boolean computeScrollOffset() {
+        if (mFinished) {
+            return false;
+        }
+        long time = AnimationUtils.currentAnimationTimeMillis();
+        boolean moving = mX.update(time);
+        moving |= mY.update(time);
+        // the last position is still to be applied by the caller
+        mFinished = !moving;
+        return true;
+    }
+
+    void forceFinished() {
+        mFinished = true;
+        mX.mode = Axis.IDLE;
+        mY.mode = Axis.IDLE;
+    }
+
+    boolean isFinished() {
+        return mFinished;
+    }
+
+    float getCurrX() {
+        return mX.pos;
+    }
+
+    float getCurrY() {
+        return mY.pos;
+    }
+
+    float getStartX() {
+        return mX.start;
+    }
+
+    float getStartY() {
+        return mY.start;
+    }
+
+    /**
+     * Returns where the motion ends, inside the bounds.
+     */
+    float getFinalX() {
+        return mX.finalPos;
+    }
+
+    float getFinalY() {
+        return mY.finalPos;
+    }
+}
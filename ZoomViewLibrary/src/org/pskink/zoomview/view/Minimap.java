@@ -0,0 +1,192 @@
+package org.pskink.zoomview.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Style;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Overview inset of {@link ZoomView} in its top right corner, showing where the
+ * window is within the content. Drawn from one small thumbnail: the coarsest
+ * pyramid level of a {@link TiledContent} Drawable, a single downsampled draw
+ * of any other Drawable, made again when it invalidates itself, e.g. for a new
+ * preview of a StreamingDrawable. A frame then costs one bitmap and two rect
+ * draws.
+ */
+class Minimap {
+    private final static String TAG = "Minimap";
+    // size of the longer side, fraction of the shorter view side
+    private static final float SIZE = 0.3f;
+    private static final int MARGIN = 16;
+
+    private Drawable mDrawable;
+    private Bitmap mThumb;
+    // the TiledDrawable mThumb was made from, null if drawn
+    private TiledDrawable mThumbTiled;
+    // the StreamingDrawable preview mThumb was drawn with
+    private int mThumbPreview;
+    private Rect mSrc;
+    // minimap area in view coordinates
+    private RectF mBox;
+    private RectF mRect;
+    private Paint mPaint;
+    private Paint mBackgroundPaint;
+    private Paint mWindowPaint;
+
+    Minimap() {
+        mSrc = new Rect();
+        mBox = new RectF();
+        mRect = new RectF();
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(0x88000000);
+        mWindowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mWindowPaint.setStyle(Style.STROKE);
+        mWindowPaint.setStrokeWidth(2);
+        mWindowPaint.setColor(0xffff8800);
+    }
+
+    void setDrawable(Drawable d) {
+        mDrawable = d;
+        recycle();
+    }
+
+    /**
+     * Places the minimap for the given view size and content.
+     */
+    void layout(RectF screen, RectF content) {
+        float size = SIZE * Math.min(screen.width(), screen.height());
+        float scale = size / Math.max(content.width(), content.height());
+        float w = Math.max(1, content.width() * scale);
+        float h = Math.max(1, content.height() * scale);
+        mBox.set(screen.right - MARGIN - w, screen.top + MARGIN, screen.right - MARGIN, screen.top + MARGIN + h);
+        if (mThumb != null && (mThumb.getWidth() != (int) w || mThumb.getHeight() != (int) h)) {
+            recycle();
+        }
+    }
+
+    boolean contains(float x, float y) {
+        return mBox.contains(x, y);
+    }
+
+    /**
+     * Maps view coordinates inside the minimap to content coordinates.
+     */
+    void toContent(float x, float y, RectF content, float[] out) {
+        out[0] = content.left + (x - mBox.left) / mBox.width() * content.width();
+        out[1] = content.top + (y - mBox.top) / mBox.height() * content.height();
+    }
+
+    /**
+     * Draws the minimap on a canvas in view coordinates.
+     */
+    void draw(Canvas canvas, RectF window, RectF content) {
+        if (mThumb == null || getTiledDrawable() != mThumbTiled || getPreview() != mThumbPreview) {
+            // keeps the old thumbnail until the new one is ready
+            createThumb(content);
+        }
+        canvas.drawRect(mBox, mBackgroundPaint);
+        if (mThumb != null) {
+            canvas.drawBitmap(mThumb, null, mBox, mPaint);
+        }
+        float sx = mBox.width() / content.width();
+        float sy = mBox.height() / content.height();
+        mRect.set(mBox.left + (window.left - content.left) * sx, mBox.top + (window.top - content.top) * sy,
+                mBox.left + (window.right - content.left) * sx, mBox.top + (window.bottom - content.top) * sy);
+        if (!mRect.intersect(mBox)) {
+            return;
+        }
+        canvas.drawRect(mRect, mWindowPaint);
+    }
+
+    private void createThumb(RectF content) {
+        int w = (int) mBox.width();
+        int h = (int) mBox.height();
+        if (mDrawable == null || w <= 0 || h <= 0) {
+            return;
+        }
+        TiledDrawable tiled = getTiledDrawable();
+        if (tiled != null) {
+            createTiledThumb(tiled, w, h, content);
+            return;
+        }
+        Bitmap thumb = Bitmap.createBitmap(w, h, mDrawable.getOpacity() == PixelFormat.OPAQUE?
+                Config.RGB_565 : Config.ARGB_8888);
+        Canvas canvas = new Canvas(thumb);
+        float scale = w / content.width();
+        if (mDrawable instanceof ViewportDrawable) {
+            ((ViewportDrawable) mDrawable).setViewport(content, scale);
+        }
+        canvas.scale(scale, (float) h / content.height());
+        canvas.translate(-content.left, -content.top);
+        mDrawable.draw(canvas);
+        setThumb(thumb, null);
+    }
+
+    private void createTiledThumb(TiledDrawable d, int w, int h, RectF content) {
+        ImagePyramid p = d.getPyramid();
+        int level = p.getLevelCount() - 1;
+        TileCache cache = d.getTileCache();
+        int cols = p.getColumns(level);
+        int rows = p.getRows(level);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (!cache.contains(level, col, row)) {
+                    // try again when the decoded tiles invalidate the view
+                    d.prefetch(content, level, 0);
+                    return;
+                }
+            }
+        }
+        // copy the tiles, the cache may recycle them any time
+        Bitmap thumb = Bitmap.createBitmap(w, h, Config.ARGB_8888);
+        Canvas canvas = new Canvas(thumb);
+        canvas.scale((float) w / p.getWidth(), (float) h / p.getHeight());
+        int extent = p.getTileExtent(level);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                Tile t = cache.get(level, col, row);
+                mSrc.set(0, 0, t.width, t.height);
+                mRect.set(col * extent, row * extent,
+                        Math.min(p.getWidth(), (col + 1) * extent),
+                        Math.min(p.getHeight(), (row + 1) * extent));
+                canvas.drawBitmap(t.bitmap, mSrc, mRect, mPaint);
+            }
+        }
+        setThumb(thumb, d);
+    }
+
+    private void setThumb(Bitmap thumb, TiledDrawable tiled) {
+        if (mThumb != null) {
+            mThumb.recycle();
+        }
+        mThumb = thumb;
+        mThumbTiled = tiled;
+        mThumbPreview = getPreview();
+    }
+
+    /**
+     * Changes when a StreamingDrawable replaces its preview, other
+     * invalidations do not change the thumbnail.
+     */
+    private int getPreview() {
+        return mDrawable instanceof StreamingDrawable? ((StreamingDrawable) mDrawable).getPreviewGeneration() : 0;
+    }
+
+    private TiledDrawable getTiledDrawable() {
+        return mDrawable instanceof TiledContent? ((TiledContent) mDrawable).getTiledDrawable() : null;
+    }
+
+    void recycle() {
+        if (mThumb != null) {
+            mThumb.recycle();
+            mThumb = null;
+        }
+        mThumbTiled = null;
+    }
+}
@@ -0,0 +1,378 @@
+package org.pskink.zoomview.view;
+
+import java.util.Arrays;
+
+import android.graphics.Canvas;
+import android.graphics.RectF;
+
+/**
+ * Layer of items (markers, polygons, annotations) drawn by {@link ZoomView} on
+ * top of its Drawable. Items are identified by the index returned by add() and
+ * kept in a {@link GridIndex}, so each frame only the items intersecting the
+ * visible window are drawn, and taps are hit tested without walking all items.
+ *
+ * With clustering enabled, items closer than the cluster radius on screen are
+ * merged. Clusters are precomputed for zoom bands doubling the scale from the
+ * minimum scale of the ZoomView, and the band is picked when the zoom changes,
+ * so the number of items drawn per frame stays bounded.
+ */
+public class Overlay {
+    private final static String TAG = "Overlay";
+
+    private Renderer mRenderer;
+    private OnItemTapListener mTapListener;
+    private float[] mBounds;
+    private int mCount;
+    private float mPadding;
+    private GridIndex mIndex;
+    private boolean mDirty;
+    private OnClusterTapListener mClusterTapListener;
+    private float mClusterRadius;
+    private float mMinScale;
+    private float mMaxScale;
+    private Band[] mBands;
+    private Band mBand;
+    private float mScale;
+
+    // clusters precomputed for scales from minScale up to twice minScale
+    private static class Band {
+        float minScale;
+        int count;
+        // clusters of a single item have the item bounds, others their center
+        float[] bounds;
+        // number of items per cluster
+        int[] sizes;
+        // item of a single item cluster
+        int[] items;
+        GridIndex index;
+    }
+
+    public interface Renderer {
+        /**
+         * Draws item on a canvas mapping content coordinates to the screen.
+         * scale is the number of screen pixels per content unit, e.g. a marker
+         * of constant size has a radius of r / scale.
+         */
+        public void drawItem(Canvas canvas, Overlay overlay, int item, float scale);
+
+        /**
+         * Draws a cluster of size items centered at (x, y), only called when
+         * clustering is enabled.
+         */
+        public void drawCluster(Canvas canvas, Overlay overlay, float x, float y, int size, float scale);
+    }
+
+    public interface OnItemTapListener {
+        /**
+         * Returns true if the tap was consumed.
+         */
+        public boolean onItemTap(Overlay overlay, int item);
+    }
+
+    public interface OnClusterTapListener {
+        /**
+         * Returns true if the tap was consumed.
+         */
+        public boolean onClusterTap(Overlay overlay, float x, float y, int size);
+    }
+
+    public Overlay(Renderer renderer) {
+        mRenderer = renderer;
+        mBounds = new float[64];
+        mIndex = new GridIndex();
+    }
+
+    public void setOnItemTapListener(OnItemTapListener listener) {
+        mTapListener = listener;
+    }
+
+    public void setOnClusterTapListener(OnClusterTapListener listener) {
+        mClusterTapListener = listener;
+    }
+
+    /**
+     * Enables clustering of items whose centers are closer than radius screen
+     * pixels, 0 disables it.
+     */
+    public void setClusterRadius(float radius) {
+        mClusterRadius = radius;
+        mDirty = true;
+    }
+
+    /**
+     * Sets the extent, in screen pixels, items are drawn beyond their bounds,
+     * e.g. the radius of a marker added with zero sized bounds. It is used for
+     * culling and as the touch slop for hit testing.
+     */
+    public void setPadding(float padding) {
+        mPadding = padding;
+    }
+
+    /**
+     * Adds an item with the given bounds in content coordinates and returns its
+     * index.
+     */
+    public int add(float left, float top, float right, float bottom) {
+        int i4 = mCount * 4;
+        if (i4 == mBounds.length) {
+            mBounds = Arrays.copyOf(mBounds, i4 * 2);
+        }
+        mBounds[i4] = left;
+        mBounds[i4 + 1] = top;
+        mBounds[i4 + 2] = right;
+        mBounds[i4 + 3] = bottom;
+        mDirty = true;
+        return mCount++;
+    }
+
+    /**
+     * Adds a point item, drawn with a constant screen size given by setPadding().
+     */
+    public int add(float x, float y) {
+        return add(x, y, x, y);
+    }
+
+    public void set(int item, float left, float top, float right, float bottom) {
+        int i4 = item * 4;
+        mBounds[i4] = left;
+        mBounds[i4 + 1] = top;
+        mBounds[i4 + 2] = right;
+        mBounds[i4 + 3] = bottom;
+        mDirty = true;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mDirty = true;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public void getBounds(int item, RectF out) {
+        int i4 = item * 4;
+        out.set(mBounds[i4], mBounds[i4 + 1], mBounds[i4 + 2], mBounds[i4 + 3]);
+    }
+
+    public float getCenterX(int item) {
+        return (mBounds[item * 4] + mBounds[item * 4 + 2]) / 2;
+    }
+
+    public float getCenterY(int item) {
+        return (mBounds[item * 4 + 1] + mBounds[item * 4 + 3]) / 2;
+    }
+
+    void setScaleRange(float minScale, float maxScale) {
+        if (minScale != mMinScale || maxScale != mMaxScale) {
+            mMinScale = minScale;
+            mMaxScale = maxScale;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Picks the cluster band for the given scale, called by ZoomView.setZoom.
+     */
+    void setScale(float scale) {
+        mScale = scale;
+        if (!mDirty) {
+            pickBand();
+        }
+    }
+
+    private void pickBand() {
+        mBand = null;
+        if (mBands != null) {
+            int band = 0;
+            while (band < mBands.length - 1 && mBands[band + 1].minScale <= mScale) {
+                band++;
+            }
+            mBand = mBands[band];
+        }
+    }
+
+    void draw(Canvas canvas, RectF window, float scale) {
+        ensureIndex();
+        if (mBand != null) {
+            drawClusters(canvas, window, scale);
+            return;
+        }
+        float pad = mPadding / scale;
+        int n = mIndex.query(window.left - pad, window.top - pad, window.right + pad, window.bottom + pad);
+        int[] items = mIndex.getResult();
+        for (int i = 0; i < n; i++) {
+            mRenderer.drawItem(canvas, this, items[i], scale);
+        }
+    }
+
+    private void drawClusters(Canvas canvas, RectF window, float scale) {
+        Band band = mBand;
+        float pad = Math.max(mPadding, mClusterRadius) / scale;
+        int n = band.index.query(window.left - pad, window.top - pad, window.right + pad, window.bottom + pad);
+        int[] clusters = band.index.getResult();
+        for (int i = 0; i < n; i++) {
+            int c = clusters[i];
+            if (band.sizes[c] == 1) {
+                mRenderer.drawItem(canvas, this, band.items[c], scale);
+            } else {
+                mRenderer.drawCluster(canvas, this, band.bounds[c * 4], band.bounds[c * 4 + 1], band.sizes[c], scale);
+            }
+        }
+    }
+
+    /**
+     * Returns the topmost item within the touch slop of (x, y), given in content
+     * coordinates, preferring the one whose center is nearest, or -1. Clusters
+     * are ignored.
+     */
+    public int hitTest(float x, float y, float scale) {
+        ensureIndex();
+        float pad = mPadding / scale;
+        int n = mIndex.query(x - pad, y - pad, x + pad, y + pad);
+        int[] items = mIndex.getResult();
+        int hit = -1;
+        float best = Float.MAX_VALUE;
+        // topmost (last drawn) first
+        for (int i = n - 1; i >= 0; i--) {
+            int item = items[i];
+            float dx = getCenterX(item) - x;
+            float dy = getCenterY(item) - y;
+            float d = dx * dx + dy * dy;
+            if (d < best) {
+                best = d;
+                hit = item;
+            }
+        }
+        return hit;
+    }
+
+    boolean onTap(float x, float y, float scale) {
+        if (mBand != null) {
+            return onClusterTap(x, y, scale);
+        }
+        if (mTapListener == null) {
+            return false;
+        }
+        int item = hitTest(x, y, scale);
+        return item != -1 && mTapListener.onItemTap(this, item);
+    }
+
+    private boolean onClusterTap(float x, float y, float scale) {
+        Band band = mBand;
+        float pad = Math.max(mPadding, mClusterRadius) / scale;
+        int n = band.index.query(x - pad, y - pad, x + pad, y + pad);
+        int[] clusters = band.index.getResult();
+        int hit = -1;
+        float best = Float.MAX_VALUE;
+        for (int i = n - 1; i >= 0; i--) {
+            int c = clusters[i];
+            float dx = (band.bounds[c * 4] + band.bounds[c * 4 + 2]) / 2 - x;
+            float dy = (band.bounds[c * 4 + 1] + band.bounds[c * 4 + 3]) / 2 - y;
+            float d = dx * dx + dy * dy;
+            if (d < best) {
+                best = d;
+                hit = c;
+            }
+        }
+        if (hit == -1) {
+            return false;
+        }
+        if (band.sizes[hit] == 1) {
+            return mTapListener != null && mTapListener.onItemTap(this, band.items[hit]);
+        }
+        return mClusterTapListener != null &&
+                mClusterTapListener.onClusterTap(this, band.bounds[hit * 4], band.bounds[hit * 4 + 1], band.sizes[hit]);
+    }
+
+    private void ensureIndex() {
+        if (mDirty) {
+            mIndex.build(mBounds, mCount);
+            buildBands();
+            pickBand();
+            mDirty = false;
+        }
+    }
+
+    private void buildBands() {
+        if (mClusterRadius <= 0 || mMinScale <= 0 || mCount == 0) {
+            mBands = null;
+            return;
+        }
+        int numBands = 1;
+        while (mMinScale * (1 << numBands) < mMaxScale) {
+            numBands++;
+        }
+        mBands = new Band[numBands];
+        long[] keys = new long[mCount];
+        for (int i = 0; i < numBands; i++) {
+            mBands[i] = buildBand(mMinScale * (1 << i), keys);
+        }
+    }
+
+    // grid clustering at the band's lowest scale: items of the same cell are merged
+    private Band buildBand(float scale, long[] keys) {
+        float cell = mClusterRadius / scale;
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = -Float.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            left = Math.min(left, getCenterX(i));
+            top = Math.min(top, getCenterY(i));
+            right = Math.max(right, getCenterX(i));
+        }
+        long cols = (long) ((right - left) / cell) + 1;
+        // sort items by cell: key = cell << 24 | item
+        for (int i = 0; i < mCount; i++) {
+            long col = (long) ((getCenterX(i) - left) / cell);
+            long row = (long) ((getCenterY(i) - top) / cell);
+            keys[i] = (row * cols + col) << 24 | i;
+        }
+        Arrays.sort(keys, 0, mCount);
+
+        Band band = new Band();
+        band.minScale = scale;
+        band.bounds = new float[mCount * 4];
+        band.sizes = new int[mCount];
+        band.items = new int[mCount];
+        int c = -1;
+        long lastCell = -1;
+        for (int i = 0; i < mCount; i++) {
+            long cellKey = keys[i] >>> 24;
+            int item = (int) (keys[i] & 0xffffff);
+            int c4;
+            if (cellKey != lastCell) {
+                lastCell = cellKey;
+                c++;
+                c4 = c * 4;
+                getBounds(item, band.bounds, c4);
+                band.items[c] = item;
+            } else {
+                c4 = c * 4;
+                if (band.sizes[c] == 1) {
+                    // turn the single item bounds into a center accumulator
+                    band.bounds[c4] = getCenterX(band.items[c]);
+                    band.bounds[c4 + 1] = getCenterY(band.items[c]);
+                }
+                band.bounds[c4] += getCenterX(item);
+                band.bounds[c4 + 1] += getCenterY(item);
+            }
+            band.sizes[c]++;
+        }
+        band.count = c + 1;
+        for (c = 0; c < band.count; c++) {
+            if (band.sizes[c] > 1) {
+                int c4 = c * 4;
+                float x = band.bounds[c4] / band.sizes[c];
+                float y = band.bounds[c4 + 1] / band.sizes[c];
+                band.bounds[c4] = band.bounds[c4 + 2] = x;
+                band.bounds[c4 + 1] = band.bounds[c4 + 3] = y;
+            }
+        }
+        band.index = new GridIndex();
+        band.index.build(band.bounds, band.count);
+        return band;
+    }
+
+    private void getBounds(int item, float[] out, int offset) {
+        System.arraycopy(mBounds, item * 4, out, offset, 4);
+    }
+}
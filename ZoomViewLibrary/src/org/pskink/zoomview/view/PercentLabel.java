@@ -0,0 +1,108 @@
+package org.pskink.zoomview.view;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+
+/**
+ * A label followed by a scale in percent, e.g. "Zoom: 50%", formatted like
+ * {@link NumberFormat#getPercentInstance()} into a reused char buffer, so it
+ * can be updated on every zoom step without allocating. Pass the buffer to
+ * TextView.setText(char[], int, int).
+ */
+public class PercentLabel {
+    private final static String TAG = "PercentLabel";
+
+    private final String mPrefix;
+    private final String mSuffix;
+    private final char mZero;
+    private final char mGroupingSeparator;
+    private final int mGroupingSize;
+    private char[] mChars;
+    private int mLength;
+    private String mLabel;
+    private int mPercent;
+
+    public PercentLabel() {
+        this(NumberFormat.getPercentInstance());
+    }
+
+    public PercentLabel(NumberFormat format) {
+        if (format instanceof DecimalFormat) {
+            // the locale's pattern, e.g. "#,##0%" or "%#,##0"
+            DecimalFormat df = (DecimalFormat) format;
+            DecimalFormatSymbols symbols = df.getDecimalFormatSymbols();
+            mPrefix = df.getPositivePrefix();
+            mSuffix = df.getPositiveSuffix();
+            mZero = symbols.getZeroDigit();
+            mGroupingSeparator = symbols.getGroupingSeparator();
+            mGroupingSize = df.isGroupingUsed()? df.getGroupingSize() : 0;
+        } else {
+            mPrefix = "";
+            mSuffix = "%";
+            mZero = '0';
+            mGroupingSeparator = ',';
+            mGroupingSize = 0;
+        }
+        mChars = new char[32];
+        mLabel = "";
+        mPercent = -1;
+    }
+
+    /**
+     * Formats label and scale, returns false if the text did not change.
+     */
+    public boolean set(String label, float scale) {
+        int percent = Math.max(0, Math.round(scale * 100));
+        if (percent == mPercent && label.equals(mLabel)) {
+            return false;
+        }
+        mLabel = label;
+        mPercent = percent;
+
+        int digits = 1;
+        for (int p = percent; p >= 10; p /= 10) {
+            digits++;
+        }
+        int separators = mGroupingSize > 0? (digits - 1) / mGroupingSize : 0;
+        int length = label.length() + mPrefix.length() + digits + separators + mSuffix.length();
+        if (length > mChars.length) {
+            mChars = new char[length];
+        }
+        int pos = 0;
+        label.getChars(0, label.length(), mChars, pos);
+        pos += label.length();
+        mPrefix.getChars(0, mPrefix.length(), mChars, pos);
+        pos += mPrefix.length();
+        // digits from the right, with a separator after every group
+        int end = pos + digits + separators;
+        int p = percent;
+        for (int i = end - 1, n = 0; i >= pos; i--) {
+            if (mGroupingSize > 0 && n == mGroupingSize) {
+                mChars[i] = mGroupingSeparator;
+                n = 0;
+                continue;
+            }
+            mChars[i] = (char) (mZero + p % 10);
+            p /= 10;
+            n++;
+        }
+        pos = end;
+        mSuffix.getChars(0, mSuffix.length(), mChars, pos);
+        mLength = length;
+        return true;
+    }
+
+    public char[] getChars() {
+        return mChars;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
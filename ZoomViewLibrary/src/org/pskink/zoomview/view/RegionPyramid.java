@@ -0,0 +1,79 @@
+package org.pskink.zoomview.view;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+/**
+ * ImagePyramid built on the fly from a single JPEG or PNG: every level is
+ * decoded from the source with a power of two inSampleSize.
+ */
+public class RegionPyramid extends ImagePyramid {
+    private final static String TAG = "RegionPyramid";
+    private static final int TILE_SIZE = 256;
+
+    private BitmapRegionDecoder mDecoder;
+    private int mWidth;
+    private int mHeight;
+    private int mLevelCount;
+
+    public RegionPyramid(InputStream is) throws IOException {
+        this(BitmapRegionDecoder.newInstance(is, false));
+    }
+
+    public RegionPyramid(String pathName) throws IOException {
+        this(BitmapRegionDecoder.newInstance(pathName, false));
+    }
+
+    private RegionPyramid(BitmapRegionDecoder decoder) throws IOException {
+        if (decoder == null) {
+            throw new IOException("cannot create region decoder (unsupported format?)");
+        }
+        mDecoder = decoder;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mLevelCount = levelCount(mWidth, mHeight, TILE_SIZE);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getTileSize() {
+        return TILE_SIZE;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    @Override
+    public Bitmap decodeTile(int level, int col, int row, BitmapFactory.Options options) {
+        if (mDecoder.isRecycled()) {
+            return null;
+        }
+        int extent = getTileExtent(level);
+        Rect region = new Rect(col * extent, row * extent,
+                Math.min(mWidth, (col + 1) * extent),
+                Math.min(mHeight, (row + 1) * extent));
+        options.inSampleSize = 1 << level;
+        return mDecoder.decodeRegion(region, options);
+    }
+
+    @Override
+    public void recycle() {
+        mDecoder.recycle();
+    }
+}
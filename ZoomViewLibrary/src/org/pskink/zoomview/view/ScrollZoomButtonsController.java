@@ -1,7 +1,5 @@
 package org.pskink.zoomview.view;
 
-import java.text.NumberFormat;
-
 import android.content.Context;
 import android.graphics.Typeface;
 import android.graphics.drawable.PaintDrawable;
@@ -18,14 +16,18 @@ public class ScrollZoomButtonsController extends ZoomButtonsController {
     private final static String TAG = "ScrollZoomButtonsController";
 
     private TextView mZoomLabel;
-    private NumberFormat mZoomFormat;
+    // shown in mZoomLabel
+    private PercentLabel mZoomText;
+    private String mLabel;
+    private float mScale;
 
     public ScrollZoomButtonsController(ZoomView ownerView) {
         super(ownerView);
 
         Context context = ownerView.getContext();
         mZoomLabel = new TextView(context);
-        mZoomFormat = NumberFormat.getPercentInstance();
+        mZoomText = new PercentLabel();
+        mLabel = "";
 
         setAutoDismissed(true);
         setOnZoomListener(ownerView);
@@ -54,7 +56,32 @@ public class ScrollZoomButtonsController extends ZoomButtonsController {
         container.addView(layout, p0);
     }
 
+    /**
+     * Sets the label shown above the zoom buttons, e.g. "Zoom: 50%". Called on
+     * every zoom step, so the TextView is only updated while the controls are
+     * visible and when the shown percentage changes.
+     */
     public void setText(String label, float scale) {
-        mZoomLabel.setText(label + mZoomFormat.format(scale));
+        mLabel = label;
+        mScale = scale;
+        if (isVisible()) {
+            updateLabel();
+        }
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        if (visible) {
+            // skipped while hidden
+            updateLabel();
+        }
+        super.setVisible(visible);
+    }
+
+    private void updateLabel() {
+        if (mZoomText.set(mLabel, mScale)) {
+            // no String per zoom step
+            mZoomLabel.setText(mZoomText.getChars(), 0, mZoomText.length());
+        }
     }
 }
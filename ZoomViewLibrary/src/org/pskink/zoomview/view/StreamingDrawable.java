@@ -0,0 +1,367 @@
+package org.pskink.zoomview.view;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Drawable for images read from a slow stream, e.g. a remote content provider.
+ * The stream is copied to a spool file on a background thread, not kept in
+ * memory. As soon as the header is in, the size is known and the listener can
+ * set the drawable on a {@link ZoomView}. Then a small preview decoded from the
+ * bytes read so far is redrawn while more arrive, a progressive JPEG sharpens
+ * with every scan. When the stream ends the image is drawn by a
+ * {@link TiledDrawable} over the spool file, with the preview filling the
+ * tiles not decoded yet.
+ *
+ * All listener methods are called on the main thread.
+ */
+public class StreamingDrawable extends Drawable implements ViewportDrawable, TiledContent,
+        Drawable.Callback {
+    private final static String TAG = "StreamingDrawable";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // longer side of the preview bitmap
+    private static final int PREVIEW_SIZE = 512;
+    // bytes and time between two previews, the bytes double after each one
+    private static final int MIN_PREVIEW_BYTES = 32 * 1024;
+    private static final long MIN_PREVIEW_MILLIS = 300;
+
+    public interface OnLoadListener {
+        /**
+         * The size is known, the drawable can be shown.
+         */
+        public void onSizeKnown(StreamingDrawable d);
+
+        /**
+         * The whole image is read and drawn sharp.
+         */
+        public void onLoaded(StreamingDrawable d);
+
+        public void onError(StreamingDrawable d, IOException e);
+    }
+
+    private final File mSpool;
+    private OnLoadListener mListener;
+    private final Handler mHandler;
+    private final Thread mThread;
+    private volatile boolean mCancelled;
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private Bitmap mPreview;
+    // counts the previews, see getPreviewGeneration()
+    private int mPreviewGeneration;
+    private TiledDrawable mTiled;
+    private RectF mVisible;
+    private float mScale;
+    private Paint mPaint;
+
+    /**
+     * Starts reading is into spool, which is deleted by recycle().
+     */
+    public StreamingDrawable(final InputStream is, File spool, OnLoadListener listener) {
+        mSpool = spool;
+        mListener = listener;
+        mHandler = new Handler(Looper.getMainLooper());
+        mVisible = new RectF();
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                load(is);
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Replaces the listener, e.g. with the new Activity after a configuration
+     * change, null to stop the callbacks. The callbacks come from main thread
+     * messages, so none is missed between detaching the old listener and
+     * setting the new one within the same message, e.g. from
+     * onRetainNonConfigurationInstance() to onCreate().
+     */
+    public void setOnLoadListener(OnLoadListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Changes each time a new preview replaces the shown one, so e.g. the
+     * minimap knows when to draw its thumbnail again.
+     */
+    int getPreviewGeneration() {
+        return mPreviewGeneration;
+    }
+
+    /**
+     * Creates the pyramid of the complete spool file, called on the loading
+     * thread. Override e.g. to wrap it with a {@link TileStore}.
+     */
+    protected ImagePyramid createPyramid(File spool) throws IOException {
+        return new RegionPyramid(spool.getPath());
+    }
+
+    /**
+     * Returns true once the whole stream has been read.
+     */
+    public boolean isLoaded() {
+        return mTiled != null;
+    }
+
+    // loading thread
+    private void load(InputStream is) {
+        try {
+            FileOutputStream out = new FileOutputStream(mSpool);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int total = 0;
+            int nextPreview = MIN_PREVIEW_BYTES;
+            long lastPreview = 0;
+            boolean sized = false;
+            int sampleSize = 1;
+            try {
+                int n;
+                while (!mCancelled && (n = is.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                    total += n;
+                    if (!sized) {
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inJustDecodeBounds = true;
+                        BitmapFactory.decodeFile(mSpool.getPath(), options);
+                        if (options.outWidth > 0 && options.outHeight > 0) {
+                            sized = true;
+                            sampleSize = sampleSize(options.outWidth, options.outHeight);
+                            postSize(options.outWidth, options.outHeight);
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (sized && total >= nextPreview && now - lastPreview >= MIN_PREVIEW_MILLIS) {
+                        // a partial file decodes to the scans or rows read so far
+                        postPreview(decodePreview(sampleSize));
+                        nextPreview = 2 * total;
+                        lastPreview = now;
+                    }
+                }
+            } finally {
+                out.close();
+                is.close();
+            }
+            if (mCancelled) {
+                return;
+            }
+            if (!sized) {
+                throw new IOException("not an image");
+            }
+            // the final preview also fills tiles not decoded yet
+            postPreview(decodePreview(sampleSize));
+            ImagePyramid pyramid;
+            try {
+                pyramid = createPyramid(mSpool);
+            } catch (IOException e) {
+                // no region decoder for this format, keep the complete preview
+                Log.d(TAG, "load: no pyramid, showing the preview only: " + e.getMessage());
+                pyramid = null;
+            }
+            postLoaded(pyramid);
+        } catch (final IOException e) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled && mListener != null) {
+                        mListener.onError(StreamingDrawable.this, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static int sampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / sampleSize > PREVIEW_SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private Bitmap decodePreview(int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        try {
+            return BitmapFactory.decodeFile(mSpool.getPath(), options);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "decodePreview: out of memory");
+            return null;
+        }
+    }
+
+    private void postSize(final int width, final int height) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    return;
+                }
+                mWidth = width;
+                mHeight = height;
+                setBounds(0, 0, width, height);
+                if (mListener != null) {
+                    mListener.onSizeKnown(StreamingDrawable.this);
+                }
+            }
+        });
+    }
+
+    private void postPreview(final Bitmap preview) {
+        if (preview == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    preview.recycle();
+                    return;
+                }
+                if (mPreview != null) {
+                    mPreview.recycle();
+                }
+                mPreview = preview;
+                mPreviewGeneration++;
+                invalidateSelf();
+            }
+        });
+    }
+
+    private void postLoaded(final ImagePyramid pyramid) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    if (pyramid != null) {
+                        pyramid.recycle();
+                    }
+                    return;
+                }
+                if (pyramid != null) {
+                    mTiled = new TiledDrawable(pyramid);
+                    mTiled.setBounds(getBounds());
+                    mTiled.setCallback(StreamingDrawable.this);
+                    if (!mVisible.isEmpty()) {
+                        mTiled.setViewport(mVisible, mScale);
+                    }
+                }
+                invalidateSelf();
+                if (mListener != null) {
+                    mListener.onLoaded(StreamingDrawable.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops loading, releases the preview and the tiles and deletes the spool
+     * file.
+     */
+    public void recycle() {
+        mCancelled = true;
+        if (mPreview != null) {
+            mPreview.recycle();
+            mPreview = null;
+        }
+        if (mTiled != null) {
+            mTiled.recycle();
+            mTiled = null;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // after the loading thread let go of the file
+                if (mThread.isAlive()) {
+                    mHandler.postDelayed(this, MIN_PREVIEW_MILLIS);
+                } else {
+                    mSpool.delete();
+                }
+            }
+        });
+    }
+
+    @Override
+    public TiledDrawable getTiledDrawable() {
+        return mTiled;
+    }
+
+    @Override
+    public void setViewport(RectF visible, float scale) {
+        mVisible.set(visible);
+        mScale = scale;
+        if (mTiled != null) {
+            mTiled.setViewport(visible, scale);
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mPreview != null) {
+            canvas.drawBitmap(mPreview, null, getBounds(), mPaint);
+        }
+        if (mTiled != null) {
+            mTiled.draw(canvas);
+        }
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        unscheduleSelf(what);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        if (mTiled != null) {
+            mTiled.setAlpha(alpha);
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -0,0 +1,55 @@
+package org.pskink.zoomview.view;
+
+import android.graphics.Bitmap;
+
+/**
+ * Decoded pyramid tile, also used as its own (level, col, row) cache key.
+ */
+class Tile {
+    int level;
+    int col;
+    int row;
+    Bitmap bitmap;
+    // valid area of bitmap, a pooled bitmap may be bigger than the tile
+    int width;
+    int height;
+    // drawn at least once, i.e. not a pending swap from a placeholder
+    boolean drawn;
+
+    Tile() {
+    }
+
+    Tile(int level, int col, int row) {
+        set(level, col, row);
+    }
+
+    Tile set(int level, int col, int row) {
+        this.level = level;
+        this.col = col;
+        this.row = row;
+        return this;
+    }
+
+    int getByteCount() {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    @Override
+    public int hashCode() {
+        return (level * 31 + col) * 31 + row;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Tile)) {
+            return false;
+        }
+        Tile t = (Tile) o;
+        return t.level == level && t.col == col && t.row == row;
+    }
+
+    @Override
+    public String toString() {
+        return "Tile[" + level + ": " + col + "x" + row + "]";
+    }
+}
@@ -0,0 +1,143 @@
+package org.pskink.zoomview.view;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU cache of decoded tiles keyed by (level, col, row) and bounded by a memory
+ * budget in bytes. Evicted tiles return their bitmaps to a {@link BitmapPool}.
+ * A cache belongs to a single {@link ImagePyramid}.
+ */
+public class TileCache {
+    private final static String TAG = "TileCache";
+
+    private final LinkedHashMap<Tile, Tile> mMap;
+    private final BitmapPool mPool;
+    private final Tile mKey;
+    private long mMaxBytes;
+    private long mBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public TileCache(long maxBytes) {
+        this(maxBytes, new BitmapPool(maxBytes / 4));
+    }
+
+    public TileCache(long maxBytes, BitmapPool pool) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        // access order makes the iteration order least recently used first
+        mMap = new LinkedHashMap<Tile, Tile>(64, 0.75f, true);
+        mPool = pool;
+        mKey = new Tile();
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the default budget: an eighth of the heap available to the app.
+     */
+    public static long getDefaultMaxBytes() {
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    public BitmapPool getPool() {
+        return mPool;
+    }
+
+    Tile get(int level, int col, int row) {
+        Tile t = mMap.get(mKey.set(level, col, row));
+        if (t != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return t;
+    }
+
+    /**
+     * Like get() but does not count as a hit or miss, nor change LRU order.
+     */
+    boolean contains(int level, int col, int row) {
+        return mMap.containsKey(mKey.set(level, col, row));
+    }
+
+    void put(Tile tile) {
+        Tile old = mMap.put(tile, tile);
+        if (old != null && old != tile) {
+            mBytes -= old.getByteCount();
+            mPool.put(old.bitmap);
+        }
+        mBytes += tile.getByteCount();
+        trimToSize(mMaxBytes);
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public int size() {
+        return mMap.size();
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public void resetStats() {
+        mHitCount = mMissCount = mEvictionCount = 0;
+    }
+
+    /**
+     * Removes all tiles and recycles their bitmaps together with the pooled ones.
+     */
+    public void clear() {
+        for (Tile t : mMap.values()) {
+            t.bitmap.recycle();
+        }
+        mMap.clear();
+        mBytes = 0;
+        mPool.clear();
+    }
+
+    private void trimToSize(long maxBytes) {
+        if (mBytes <= maxBytes) {
+            return;
+        }
+        Iterator<Tile> it = mMap.values().iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            Tile t = it.next();
+            it.remove();
+            mBytes -= t.getByteCount();
+            mEvictionCount++;
+            mPool.put(t.bitmap);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[tiles: " + mMap.size() + ", bytes: " + mBytes + "/" + mMaxBytes +
+                ", hits: " + mHitCount + ", misses: " + mMissCount + ", evictions: " + mEvictionCount + "]";
+    }
+}
@@ -0,0 +1,384 @@
+package org.pskink.zoomview.view;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Decodes tiles on a fixed pool of background threads. Requests are served
+ * nearest to the viewport center first, requests not renewed by the last frame
+ * are cancelled and finished tiles are handed to the {@link TileCache} in
+ * batches, with one invalidate per batch.
+ *
+ * Except for the constructor all methods must be called on the main thread.
+ */
+public class TileDecoder {
+    private final static String TAG = "TileDecoder";
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static TileDecoder sDefault;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mHandler;
+    // main thread only
+    private final ArrayList<Task> mPending;
+    // mPending by (cache, level, col, row), one request per tile of a cache
+    private final HashMap<Key, Task> mIndex;
+    private final Key mProbe;
+    private final ArrayList<TiledDrawable> mOwners;
+    // guarded by mDone
+    private final ArrayList<Task> mDone;
+    private boolean mDeliverPosted;
+    private long mSequence;
+
+    private static class Key {
+        TileCache cache;
+        int level;
+        int col;
+        int row;
+
+        Key set(TileCache cache, int level, int col, int row) {
+            this.cache = cache;
+            this.level = level;
+            this.col = col;
+            this.row = row;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((System.identityHashCode(cache) * 31 + level) * 31 + col) * 31 + row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.cache == cache && k.level == level && k.col == col && k.row == row;
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        // main thread, the first waiting drawable takes over a cancelled task
+        TiledDrawable owner;
+        final int level;
+        final int col;
+        final int row;
+        final Key key;
+        float priority;
+        long sequence;
+        // position in mPending, -1 once removed
+        int index;
+        int frame;
+        boolean prefetch;
+        volatile boolean cancelled;
+        Tile tile;
+        // other drawables sharing the cache of owner that wait for this tile
+        ArrayList<TiledDrawable> waiting;
+
+        Task(TiledDrawable owner, int level, int col, int row) {
+            this.owner = owner;
+            this.level = level;
+            this.col = col;
+            this.row = row;
+            key = new Key().set(owner.getTileCache(), level, col, row);
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (priority != another.priority) {
+                return priority < another.priority? -1 : 1;
+            }
+            return sequence < another.sequence? -1 : (sequence == another.sequence? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            if (!cancelled) {
+                tile = decode(owner.getPyramid(), owner.getTileCache().getPool(), level, col, row);
+            }
+            synchronized (mDone) {
+                mDone.add(this);
+                if (!mDeliverPosted) {
+                    mDeliverPosted = true;
+                    mHandler.post(mDeliver);
+                }
+            }
+        }
+    }
+
+    public TileDecoder(int threads) {
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), sThreadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+        mHandler = new Handler(Looper.getMainLooper());
+        mPending = new ArrayList<Task>();
+        mIndex = new HashMap<Key, Task>();
+        mProbe = new Key();
+        mOwners = new ArrayList<TiledDrawable>();
+        mDone = new ArrayList<Task>();
+    }
+
+    /**
+     * Returns the decoder shared by all TiledDrawables not given their own.
+     */
+    public static synchronized TileDecoder getDefault() {
+        if (sDefault == null) {
+            int cpus = Runtime.getRuntime().availableProcessors();
+            sDefault = new TileDecoder(Math.max(1, Math.min(cpus - 1, 3)));
+        }
+        return sDefault;
+    }
+
+    /**
+     * Returns the number of requests queued or being decoded.
+     */
+    public int getQueueSize() {
+        return mPending.size();
+    }
+
+    /**
+     * Requests tile (level, col, row) of owner, or renews an existing request
+     * for the current frame with the new priority (lower goes first). Prefetch
+     * requests are not cancelled by cancelStale().
+     */
+    void request(TiledDrawable owner, int level, int col, int row, float priority, int frame, boolean prefetch) {
+        Task task = find(owner, level, col, row);
+        if (task != null && task.owner != owner) {
+            // being decoded for another drawable into the same cache
+            if (task.waiting == null) {
+                task.waiting = new ArrayList<TiledDrawable>(1);
+            }
+            if (!task.waiting.contains(owner)) {
+                task.waiting.add(owner);
+            }
+            return;
+        }
+        if (task != null) {
+            if (prefetch && !task.prefetch) {
+                // already wanted by a visible tile
+                return;
+            }
+            task.prefetch = prefetch;
+            task.frame = frame;
+            if (task.priority != priority && mExecutor.remove(task)) {
+                // still queued: requeue at its new position
+                task.priority = priority;
+                mExecutor.execute(task);
+            }
+            return;
+        }
+        task = new Task(owner, level, col, row);
+        task.priority = priority;
+        task.sequence = mSequence++;
+        task.frame = frame;
+        task.prefetch = prefetch;
+        task.index = mPending.size();
+        mPending.add(task);
+        mIndex.put(task.key, task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Cancels queued requests of owner that were not renewed in the given frame,
+     * e.g. tiles that left the viewport during a fling.
+     */
+    void cancelStale(TiledDrawable owner, int frame) {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            Task task = mPending.get(i);
+            if (task.owner == owner && !task.prefetch && task.frame != frame && mExecutor.remove(task)) {
+                if (handOff(task)) {
+                    mExecutor.execute(task);
+                } else {
+                    removePending(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels queued prefetch requests of owner.
+     */
+    void cancelPrefetch(TiledDrawable owner) {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            Task task = mPending.get(i);
+            if (task.owner == owner && task.prefetch && mExecutor.remove(task)) {
+                if (handOff(task)) {
+                    mExecutor.execute(task);
+                } else {
+                    removePending(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels all requests of owner, including the ones being decoded.
+     */
+    void cancelAll(TiledDrawable owner) {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            Task task = mPending.get(i);
+            if (task.waiting != null) {
+                task.waiting.remove(owner);
+            }
+            if (task.owner == owner && !handOff(task)) {
+                task.cancelled = true;
+                mExecutor.remove(task);
+                removePending(i);
+            }
+        }
+    }
+
+    /**
+     * Gives a task its owner no longer wants to the first drawable waiting for
+     * it, returns false if there is none. The task then counts as a prefetch
+     * of the new owner until its next frame requests the tile again, so it is
+     * not cancelled by a frame that asked for the tile while it waited.
+     */
+    private boolean handOff(Task task) {
+        if (task.waiting == null || task.waiting.isEmpty()) {
+            return false;
+        }
+        task.owner = task.waiting.remove(0);
+        task.prefetch = true;
+        return true;
+    }
+
+    /**
+     * Returns the request for the tile, of owner or of another drawable sharing
+     * its cache. Called for every visible tile on every frame, so a map lookup
+     * rather than a scan of the prefetch backlog.
+     */
+    private Task find(TiledDrawable owner, int level, int col, int row) {
+        return mIndex.get(mProbe.set(owner.getTileCache(), level, col, row));
+    }
+
+    private void removePending(int index) {
+        removePending(mPending.get(index));
+    }
+
+    /**
+     * Removes task in constant time by moving the last pending task into its
+     * place, so scans from the end still visit every task once.
+     */
+    private void removePending(Task task) {
+        Task last = mPending.remove(mPending.size() - 1);
+        if (last != task) {
+            mPending.set(task.index, last);
+            last.index = task.index;
+        }
+        task.index = -1;
+        unindex(task);
+    }
+
+    private void unindex(Task task) {
+        if (mIndex.get(task.key) == task) {
+            mIndex.remove(task.key);
+        }
+    }
+
+    // worker thread
+    private static Tile decode(ImagePyramid pyramid, BitmapPool pool, int level, int col, int row) {
+        int w = pyramid.getTileWidth(level, col);
+        int h = pyramid.getTileHeight(level, row);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        boolean reuse = pool.prepare(options, w, h);
+        Bitmap bitmap;
+        try {
+            try {
+                bitmap = pyramid.decodeTile(level, col, row, options);
+            } catch (IllegalArgumentException e) {
+                if (!reuse) {
+                    throw e;
+                }
+                // the pooled bitmap could not be reused, decode into a new one
+                pool.release(options);
+                bitmap = pyramid.decodeTile(level, col, row, options);
+            }
+        } catch (RuntimeException e) {
+            // e.g. the pyramid was recycled while decoding
+            Log.w(TAG, "decode failed for level " + level + " tile " + col + "x" + row, e);
+            return null;
+        }
+        if (reuse && bitmap != options.inBitmap) {
+            // e.g. a TileStore read that could not use it
+            pool.release(options);
+        }
+        if (bitmap == null) {
+            Log.w(TAG, "decode failed for level " + level + " tile " + col + "x" + row);
+            return null;
+        }
+        Tile t = new Tile(level, col, row);
+        t.bitmap = bitmap;
+        t.width = Math.min(w, bitmap.getWidth());
+        t.height = Math.min(h, bitmap.getHeight());
+        return t;
+    }
+
+    private Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<TiledDrawable> owners = mOwners;
+            synchronized (mDone) {
+                mDeliverPosted = false;
+                for (int i = 0; i < mDone.size(); i++) {
+                    Task task = mDone.get(i);
+                    if (task.index >= 0) {
+                        removePending(task);
+                    }
+                    if (task.tile == null) {
+                        continue;
+                    }
+                    if (task.cancelled) {
+                        task.tile.bitmap.recycle();
+                        continue;
+                    }
+                    task.owner.getTileCache().put(task.tile);
+                    if (!owners.contains(task.owner)) {
+                        owners.add(task.owner);
+                    }
+                    for (int j = 0; task.waiting != null && j < task.waiting.size(); j++) {
+                        if (!owners.contains(task.waiting.get(j))) {
+                            owners.add(task.waiting.get(j));
+                        }
+                    }
+                }
+                mDone.clear();
+            }
+            // one invalidate per drawable for the whole batch
+            for (int i = 0; i < owners.size(); i++) {
+                owners.get(i).invalidateSelf();
+            }
+            owners.clear();
+        }
+    };
+
+    private static ThreadFactory sThreadFactory = new ThreadFactory() {
+        private int mCount;
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, TAG + " #" + (++mCount));
+            t.setDaemon(true);
+            return t;
+        }
+    };
+}
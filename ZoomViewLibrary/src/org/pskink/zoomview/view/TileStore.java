@@ -0,0 +1,459 @@
+package org.pskink.zoomview.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Persistent store of decoded tiles, one indexed file per image in a directory
+ * shared by all images. wrap() returns a pyramid that decodes a tile with the
+ * source pyramid only the first time, and afterwards copies its pixels straight
+ * from a memory mapping of the file, without any JPEG or PNG decoding.
+ *
+ * The files are evicted least recently used first when the directory gets
+ * bigger than maxBytes, except the ones of pyramids not yet recycled.
+ *
+ * <pre>
+ * file:   header, index, tile data
+ * header: magic, version, width, height, tileSize, levelCount, tileCount (ints)
+ * index:  per tile offset (long), width, height, config (ints); offset 0 = not stored
+ * data:   raw pixels, never crossing a CHUNK boundary
+ * </pre>
+ */
+public class TileStore {
+    private final static String TAG = "TileStore";
+    private static final String SUFFIX = ".tiles";
+    private static final int MAGIC = 0x5a565453;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int ENTRY_SIZE = 8 + 3 * 4;
+    // files are mapped in chunks of that size, not as a whole
+    private static final int CHUNK = 4 * 1024 * 1024;
+    private static final int CONFIG_ARGB_8888 = 1;
+    private static final int CONFIG_RGB_565 = 2;
+
+    private final File mDir;
+    private long mMaxBytes;
+    private long mSize;
+    private final ArrayList<ImageFile> mOpen;
+
+    public TileStore(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        mOpen = new ArrayList<ImageFile>();
+        dir.mkdirs();
+        File[] files = listFiles();
+        for (int i = 0; i < files.length; i++) {
+            mSize += files[i].length();
+        }
+    }
+
+    /**
+     * Returns a pyramid serving the tiles of source from the store, key
+     * identifies the image across runs, e.g. its uri, version its content,
+     * e.g. its length or modification time, so an image replaced at the same
+     * uri does not get the old tiles. Falls back to source if the store file
+     * cannot be opened.
+     */
+    public ImagePyramid wrap(ImagePyramid source, String key, long version) {
+        return wrap(source, key + "#" + version);
+    }
+
+    /**
+     * Like {@link #wrap(ImagePyramid, String, long)} for keys that already
+     * change with the content.
+     */
+    public ImagePyramid wrap(ImagePyramid source, String key) {
+        File file = new File(mDir, hash(key) + SUFFIX);
+        synchronized (this) {
+            ImageFile f = getOpen(file);
+            if (f != null) {
+                // one ImageFile per file, or the wraps would append over each other
+                if (!f.matches(source)) {
+                    Log.w(TAG, "wrap: " + file + " is open for another image");
+                    return source;
+                }
+                f.mRefs++;
+                return new StoredPyramid(source, f);
+            }
+            try {
+                f = new ImageFile(file, source);
+            } catch (IOException e) {
+                Log.w(TAG, "wrap: cannot open " + file, e);
+                return source;
+            }
+            f.mRefs = 1;
+            mOpen.add(f);
+            mSize += f.mLength - f.mInitialLength;
+            return new StoredPyramid(source, f);
+        }
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize();
+    }
+
+    /**
+     * Deletes the least recently used files until the store fits in maxBytes.
+     */
+    public synchronized void trimToSize() {
+        if (mSize <= mMaxBytes) {
+            return;
+        }
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r? -1 : (l == r? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && mSize > mMaxBytes; i++) {
+            if (isOpen(files[i])) {
+                continue;
+            }
+            long length = files[i].length();
+            if (files[i].delete()) {
+                mSize -= length;
+            }
+        }
+    }
+
+    private boolean isOpen(File file) {
+        return getOpen(file) != null;
+    }
+
+    private ImageFile getOpen(File file) {
+        for (int i = 0; i < mOpen.size(); i++) {
+            if (mOpen.get(i).mFile.equals(file)) {
+                return mOpen.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns false if bytes more do not fit even after evicting.
+     */
+    private synchronized boolean reserve(long bytes) {
+        mSize += bytes;
+        trimToSize();
+        if (mSize > mMaxBytes) {
+            mSize -= bytes;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Closes f when the last pyramid using it is recycled.
+     */
+    private void release(ImageFile f) {
+        synchronized (this) {
+            if (--f.mRefs > 0) {
+                return;
+            }
+            mOpen.remove(f);
+        }
+        // outside the store lock: a writing decoder holds f and waits in reserve()
+        f.close();
+    }
+
+    private File[] listFiles() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        ArrayList<File> tiles = new ArrayList<File>(files.length);
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getName().endsWith(SUFFIX)) {
+                tiles.add(files[i]);
+            }
+        }
+        return tiles.toArray(new File[tiles.size()]);
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(2 * digest.length);
+            for (int i = 0; i < digest.length; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The store file of one image, shared by all its pyramids, read and written
+     * by decoder threads.
+     */
+    private class ImageFile {
+        final File mFile;
+        final ByteBuffer mHeader;
+        // StoredPyramids not recycled yet, guarded by the TileStore
+        int mRefs;
+        final RandomAccessFile mRaf;
+        final FileChannel mChannel;
+        final int[] mLevelStart;
+        final long mInitialLength;
+        // guarded by this ImageFile, reads only use the channel and mChunks
+        long mLength;
+        ByteBuffer mEntry;
+        // guarded by mChunkLock, entries and pixels never change once written
+        final Object mChunkLock = new Object();
+        MappedByteBuffer[] mChunks;
+
+        ImageFile(File file, ImagePyramid source) throws IOException {
+            mFile = file;
+            int levels = source.getLevelCount();
+            mLevelStart = new int[levels + 1];
+            for (int level = 0; level < levels; level++) {
+                mLevelStart[level + 1] = mLevelStart[level] + source.getColumns(level) * source.getRows(level);
+            }
+            int tileCount = mLevelStart[levels];
+            mInitialLength = file.length();
+            mRaf = new RandomAccessFile(file, "rw");
+            mChannel = mRaf.getChannel();
+            mEntry = ByteBuffer.allocate(ENTRY_SIZE);
+
+            mHeader = header(source);
+            ByteBuffer header = mHeader.duplicate();
+            ByteBuffer existing = ByteBuffer.allocate(HEADER_SIZE);
+            if (mChannel.size() < HEADER_SIZE || mChannel.read(existing, 0) != HEADER_SIZE ||
+                    !existing.flip().equals(header)) {
+                // new or of another image version: start over
+                mChannel.truncate(0);
+                mChannel.write(header, 0);
+                mChannel.write(ByteBuffer.allocate(tileCount * ENTRY_SIZE), HEADER_SIZE);
+            }
+            mLength = mChannel.size();
+            mChunks = new MappedByteBuffer[(int) (mLength / CHUNK) + 1];
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        /**
+         * Returns true if source has the geometry this file was opened with.
+         */
+        boolean matches(ImagePyramid source) {
+            return header(source).equals(mHeader);
+        }
+
+        private long entryPosition(int level, int col, int row, int columns) {
+            return HEADER_SIZE + (long) (mLevelStart[level] + row * columns + col) * ENTRY_SIZE;
+        }
+
+        Bitmap read(int level, int col, int row, int columns, BitmapFactory.Options options) throws IOException {
+            // positional reads are thread safe, so decoders do not wait for a writing one
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            if (mChannel.read(entry, entryPosition(level, col, row, columns)) != ENTRY_SIZE) {
+                return null;
+            }
+            entry.flip();
+            long offset = entry.getLong();
+            int width = entry.getInt();
+            int height = entry.getInt();
+            int config = entry.getInt();
+            if (offset == 0) {
+                return null;
+            }
+            Config c = config == CONFIG_RGB_565? Config.RGB_565 : Config.ARGB_8888;
+            int bytes = width * height * (c == Config.RGB_565? 2 : 4);
+            ByteBuffer pixels = map(offset, bytes);
+            Bitmap bitmap = reusable(options, width, height, c);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, c);
+            }
+            // one copy out of the page cache, no decoding
+            bitmap.copyPixelsFromBuffer(pixels);
+            return bitmap;
+        }
+
+        private ByteBuffer map(long offset, int bytes) throws IOException {
+            int index = (int) (offset / CHUNK);
+            long chunkStart = (long) index * CHUNK;
+            MappedByteBuffer chunk;
+            synchronized (mChunkLock) {
+                if (index >= mChunks.length) {
+                    mChunks = Arrays.copyOf(mChunks, index + 1);
+                }
+                chunk = mChunks[index];
+                if (chunk == null || chunk.capacity() < offset + bytes - chunkStart) {
+                    // the last chunk grows with the file, its entry was written after the pixels
+                    long size = Math.min(CHUNK, mChannel.size() - chunkStart);
+                    chunk = mChannel.map(FileChannel.MapMode.READ_ONLY, chunkStart, size);
+                    mChunks[index] = chunk;
+                }
+            }
+            ByteBuffer pixels = chunk.duplicate();
+            pixels.position((int) (offset - chunkStart));
+            pixels.limit((int) (offset - chunkStart) + bytes);
+            return pixels;
+        }
+
+        synchronized void write(int level, int col, int row, int columns, Bitmap bitmap) throws IOException {
+            Config c = bitmap.getConfig();
+            if (c != Config.ARGB_8888 && c != Config.RGB_565) {
+                return;
+            }
+            int bytes = bitmap.getRowBytes() * bitmap.getHeight();
+            long offset = mLength;
+            if (offset / CHUNK != (offset + bytes - 1) / CHUNK) {
+                // keep every tile within one mapped chunk
+                offset = (offset / CHUNK + 1) * CHUNK;
+            }
+            if (bytes > CHUNK || !reserve(offset + bytes - mLength)) {
+                return;
+            }
+            ByteBuffer pixels = ByteBuffer.allocate(bytes);
+            bitmap.copyPixelsToBuffer(pixels);
+            pixels.flip();
+            mChannel.write(pixels, offset);
+            mLength = offset + bytes;
+
+            mEntry.clear();
+            mEntry.putLong(offset).putInt(bitmap.getWidth()).putInt(bitmap.getHeight())
+                    .putInt(c == Config.RGB_565? CONFIG_RGB_565 : CONFIG_ARGB_8888).flip();
+            mChannel.write(mEntry, entryPosition(level, col, row, columns));
+        }
+
+        synchronized void close() {
+            try {
+                mRaf.close();
+            } catch (IOException e) {
+                Log.w(TAG, "close: " + mFile, e);
+            }
+            mFile.setLastModified(System.currentTimeMillis());
+            synchronized (mChunkLock) {
+                mChunks = new MappedByteBuffer[0];
+            }
+        }
+    }
+
+    private static ByteBuffer header(ImagePyramid source) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int levels = source.getLevelCount();
+        int tileCount = 0;
+        for (int level = 0; level < levels; level++) {
+            tileCount += source.getColumns(level) * source.getRows(level);
+        }
+        header.putInt(MAGIC).putInt(VERSION).putInt(source.getWidth()).putInt(source.getHeight())
+                .putInt(source.getTileSize()).putInt(levels).putInt(tileCount).flip();
+        return header;
+    }
+
+    /**
+     * Returns options.inBitmap if it can hold width x height pixels of config,
+     * reconfigured to that size where needed, or null. An unused inBitmap goes
+     * back to the pool in TileDecoder.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static Bitmap reusable(BitmapFactory.Options options, int width, int height, Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        Bitmap b = options.inBitmap;
+        if (b == null || !b.isMutable()) {
+            return null;
+        }
+        if (b.getWidth() == width && b.getHeight() == height && b.getConfig() == config) {
+            return b;
+        }
+        int bytes = width * height * (config == Config.RGB_565? 2 : 4);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && b.getAllocationByteCount() >= bytes) {
+            // e.g. a pooled full tile for an edge tile
+            b.reconfigure(width, height, config);
+            return b;
+        }
+        return null;
+    }
+
+    private class StoredPyramid extends ImagePyramid {
+        private final ImagePyramid mSource;
+        private final ImageFile mImageFile;
+        private boolean mRecycled;
+
+        StoredPyramid(ImagePyramid source, ImageFile file) {
+            mSource = source;
+            mImageFile = file;
+        }
+
+        @Override
+        public int getWidth() {
+            return mSource.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mSource.getHeight();
+        }
+
+        @Override
+        public int getTileSize() {
+            return mSource.getTileSize();
+        }
+
+        @Override
+        public int getLevelCount() {
+            return mSource.getLevelCount();
+        }
+
+        @Override
+        public Bitmap decodeTile(int level, int col, int row, BitmapFactory.Options options) {
+            int columns = getColumns(level);
+            try {
+                Bitmap bitmap = mImageFile.read(level, col, row, columns, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "decodeTile: cannot read " + mImageFile.mFile, e);
+            }
+            Bitmap bitmap = mSource.decodeTile(level, col, row, options);
+            if (bitmap != null) {
+                try {
+                    mImageFile.write(level, col, row, columns, bitmap);
+                } catch (IOException e) {
+                    Log.w(TAG, "decodeTile: cannot write " + mImageFile.mFile, e);
+                }
+            }
+            return bitmap;
+        }
+
+        @Override
+        public void recycle() {
+            if (mRecycled) {
+                return;
+            }
+            mRecycled = true;
+            mSource.recycle();
+            release(mImageFile);
+        }
+    }
+}
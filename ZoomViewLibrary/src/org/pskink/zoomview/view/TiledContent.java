@@ -0,0 +1,14 @@
+package org.pskink.zoomview.view;
+
+/**
+ * Implemented by Drawables drawn by a {@link TiledDrawable}, itself included:
+ * {@link ZoomView} uses it for tile prefetching and metrics, its minimap for
+ * the thumbnail, and skips the gesture snapshot since tiles are cheap to draw.
+ */
+public interface TiledContent {
+    /**
+     * Returns the TiledDrawable drawing the content, null if there is none
+     * yet, e.g. while a {@link StreamingDrawable} is still loading.
+     */
+    public TiledDrawable getTiledDrawable();
+}
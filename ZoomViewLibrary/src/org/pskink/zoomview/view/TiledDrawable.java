@@ -0,0 +1,297 @@
+package org.pskink.zoomview.view;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Drawable that draws an {@link ImagePyramid}, decoding only the tiles covering
+ * the visible window, so memory use does not depend on the size of the source
+ * image. The pyramid level is picked from the scale passed by {@link ZoomView}
+ * before every draw. Missing tiles are decoded in the background by a {@link TileDecoder}.
+ *
+ * Until a tile is decoded its area shows the best cached tile of a coarser
+ * level, upscaled. Decoded tiles replace their placeholders at a limited rate,
+ * so a burst of finished decodes does not make a single slow frame.
+ */
+public class TiledDrawable extends Drawable implements ViewportDrawable, TiledContent {
+    private final static String TAG = "TiledDrawable";
+    // keeps prefetched tiles behind the visible ones in the decode queue
+    private static final float PREFETCH_PRIORITY = 10000;
+    // ahead of all visible tiles: a placeholder for a whole area
+    private static final float PLACEHOLDER_PRIORITY = -1;
+    // decoded tiles replacing a placeholder in one frame
+    private static final int MAX_SWAPS_PER_FRAME = 4;
+
+    private ImagePyramid mPyramid;
+    private TileDecoder mDecoder;
+    private int mFrame;
+    private RectF mWindow;
+    private int mLevel;
+    private TileCache mCache;
+    private Rect mSrc;
+    private RectF mTileRect;
+    private RectF mParentRect;
+    private Paint mPaint;
+    private TiledState mState;
+    private boolean mRecycled;
+
+    public TiledDrawable(InputStream is) throws IOException {
+        this(new RegionPyramid(is));
+    }
+
+    public TiledDrawable(String pathName) throws IOException {
+        this(new RegionPyramid(pathName));
+    }
+
+    public TiledDrawable(ImagePyramid pyramid) {
+        this(pyramid, new TileCache(TileCache.getDefaultMaxBytes()), TileDecoder.getDefault());
+    }
+
+    public TiledDrawable(ImagePyramid pyramid, TileCache cache, TileDecoder decoder) {
+        this(new TiledState(pyramid, cache, decoder));
+    }
+
+    private TiledDrawable(TiledState state) {
+        mState = state;
+        state.mRefs++;
+        ImagePyramid pyramid = state.mPyramid;
+        mPyramid = pyramid;
+        mCache = state.mCache;
+        mDecoder = state.mDecoder;
+        mWindow = new RectF(0, 0, pyramid.getWidth(), pyramid.getHeight());
+        mLevel = pyramid.getLevelCount() - 1;
+        mSrc = new Rect();
+        mTileRect = new RectF();
+        mParentRect = new RectF();
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+    @Override
+    public TiledDrawable getTiledDrawable() {
+        return this;
+    }
+
+    public ImagePyramid getPyramid() {
+        return mPyramid;
+    }
+
+    public TileCache getTileCache() {
+        return mCache;
+    }
+
+    public TileDecoder getTileDecoder() {
+        return mDecoder;
+    }
+
+    @Override
+    public void setViewport(RectF visible, float scale) {
+        mWindow.set(visible);
+        // draw the pyramid level closest to the screen resolution
+        setLevel(mPyramid.levelForScale(scale));
+    }
+
+    public void setLevel(int level) {
+        mLevel = Math.max(0, Math.min(mPyramid.getLevelCount() - 1, level));
+    }
+
+    /**
+     * Queues decodes for the tiles of the given level covering window, after
+     * all visible tiles and after prefetches with a lower step. Prefetched
+     * tiles stay queued until cancelPrefetch() is called.
+     */
+    public void prefetch(RectF window, int level, int step) {
+        final ImagePyramid p = mPyramid;
+        level = Math.max(0, Math.min(p.getLevelCount() - 1, level));
+        int extent = p.getTileExtent(level);
+        int c0 = Math.max(0, (int) (window.left / extent));
+        int r0 = Math.max(0, (int) (window.top / extent));
+        int c1 = Math.min(p.getColumns(level) - 1, (int) (window.right / extent));
+        int r1 = Math.min(p.getRows(level) - 1, (int) (window.bottom / extent));
+        float cx = window.centerX();
+        float cy = window.centerY();
+        float base = PREFETCH_PRIORITY * (step + 1);
+
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                if (!mCache.contains(level, col, row)) {
+                    float dx = ((col + 0.5f) * extent - cx) / extent;
+                    float dy = ((row + 0.5f) * extent - cy) / extent;
+                    mDecoder.request(this, level, col, row, base + dx * dx + dy * dy, mFrame, true);
+                }
+            }
+        }
+    }
+
+    public void cancelPrefetch() {
+        mDecoder.cancelPrefetch(this);
+    }
+
+    /**
+     * Releases the pyramid and all cached tiles, once every drawable sharing
+     * them through getConstantState() is recycled. The drawable cannot be
+     * drawn afterwards.
+     */
+    public void recycle() {
+        if (mRecycled) {
+            return;
+        }
+        mRecycled = true;
+        mDecoder.cancelAll(this);
+        if (--mState.mRefs == 0) {
+            mCache.clear();
+            mPyramid.recycle();
+        }
+    }
+
+    /**
+     * Returns a state sharing the pyramid, the decoded tiles and the decoder,
+     * e.g. to hand them over to a new Activity on a configuration change.
+     */
+    @Override
+    public ConstantState getConstantState() {
+        return mState;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mPyramid.getWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mPyramid.getHeight();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mWindow.isEmpty()) {
+            return;
+        }
+        final ImagePyramid p = mPyramid;
+        int level = mLevel;
+        int extent = p.getTileExtent(level);
+        int c0 = Math.max(0, (int) (mWindow.left / extent));
+        int r0 = Math.max(0, (int) (mWindow.top / extent));
+        int c1 = Math.min(p.getColumns(level) - 1, (int) (mWindow.right / extent));
+        int r1 = Math.min(p.getRows(level) - 1, (int) (mWindow.bottom / extent));
+        float cx = mWindow.centerX();
+        float cy = mWindow.centerY();
+
+        mFrame++;
+        int swaps = 0;
+        boolean deferred = false;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                Tile t = mCache.get(level, col, row);
+                mTileRect.set(col * extent, row * extent,
+                        Math.min(p.getWidth(), (col + 1) * extent),
+                        Math.min(p.getHeight(), (row + 1) * extent));
+                if (t != null) {
+                    if (!t.drawn && swaps >= MAX_SWAPS_PER_FRAME && drawPlaceholder(canvas, level, col, row)) {
+                        // swapped in on one of the next frames
+                        deferred = true;
+                        continue;
+                    }
+                    if (!t.drawn) {
+                        t.drawn = true;
+                        swaps++;
+                    }
+                    mSrc.set(0, 0, t.width, t.height);
+                    canvas.drawBitmap(t.bitmap, mSrc, mTileRect, mPaint);
+                    continue;
+                }
+                // nearest to the window center are decoded first
+                float dx = ((col + 0.5f) * extent - cx) / extent;
+                float dy = ((row + 0.5f) * extent - cy) / extent;
+                mDecoder.request(this, level, col, row, dx * dx + dy * dy, mFrame, false);
+                if (!drawPlaceholder(canvas, level, col, row) && level < p.getLevelCount() - 1) {
+                    // nothing cached here yet, the coarsest level comes quickest
+                    int coarsest = p.getLevelCount() - 1;
+                    int coarsestExtent = p.getTileExtent(coarsest);
+                    mDecoder.request(this, coarsest, col * extent / coarsestExtent, row * extent / coarsestExtent,
+                            PLACEHOLDER_PRIORITY, mFrame, false);
+                }
+            }
+        }
+        // drop queued tiles that are not visible anymore
+        mDecoder.cancelStale(this, mFrame);
+        if (deferred) {
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * Draws the cached tile of the nearest coarser level covering the tile
+     * (level, col, row) in mTileRect, returns false if there is none.
+     */
+    private boolean drawPlaceholder(Canvas canvas, int level, int col, int row) {
+        final ImagePyramid p = mPyramid;
+        int extent = p.getTileExtent(level);
+        for (int l = level + 1; l < p.getLevelCount(); l++) {
+            // extents double with each level, so one tile covers the whole cell
+            int parentExtent = p.getTileExtent(l);
+            int pc = col * extent / parentExtent;
+            int pr = row * extent / parentExtent;
+            if (!mCache.contains(l, pc, pr)) {
+                continue;
+            }
+            Tile t = mCache.get(l, pc, pr);
+            mParentRect.set(pc * parentExtent, pr * parentExtent,
+                    Math.min(p.getWidth(), (pc + 1) * parentExtent),
+                    Math.min(p.getHeight(), (pr + 1) * parentExtent));
+            mSrc.set(0, 0, t.width, t.height);
+            int count = canvas.save();
+            canvas.clipRect(mTileRect);
+            canvas.drawBitmap(t.bitmap, mSrc, mParentRect, mPaint);
+            canvas.restoreToCount(count);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    static class TiledState extends ConstantState {
+        final ImagePyramid mPyramid;
+        final TileCache mCache;
+        final TileDecoder mDecoder;
+        // drawables not recycled yet
+        int mRefs;
+
+        TiledState(ImagePyramid pyramid, TileCache cache, TileDecoder decoder) {
+            mPyramid = pyramid;
+            mCache = cache;
+            mDecoder = decoder;
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new TiledDrawable(this);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return 0;
+        }
+    }
+}
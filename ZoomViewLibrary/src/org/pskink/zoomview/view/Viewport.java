@@ -0,0 +1,274 @@
+package org.pskink.zoomview.view;
+
+/**
+ * Pan and zoom state of a {@link ZoomView} without any Android dependency: the
+ * window (the visible part of the content, in content coordinates), the scale
+ * and the focal point zooming keeps in place, all plain floats, so the math can
+ * be tested and profiled on a JVM.
+ *
+ * The content-to-screen matrix is a scale followed by a translation, see
+ * getScaleX(), getTransX() etc. Where the scaled content is smaller than the
+ * screen it is centered, elsewhere the window is kept inside the content
+ * unless overscroll is allowed.
+ */
+public class Viewport {
+    private float mContentWidth;
+    private float mContentHeight;
+    private float mScreenWidth;
+    private float mScreenHeight;
+    private float mLeft;
+    private float mTop;
+    private float mRight;
+    private float mBottom;
+    private float mScale;
+    private float mMinScale;
+    private float mMaxScale = 1;
+    // focal point in content coordinates and as a fraction of the screen size
+    private float mFocalX;
+    private float mFocalY;
+    private float mFocalFractionX;
+    private float mFocalFractionY;
+    private float mScaleX;
+    private float mScaleY;
+    private float mTransX;
+    private float mTransY;
+
+    public void setContentSize(float width, float height) {
+        mContentWidth = width;
+        mContentHeight = height;
+    }
+
+    public void setScreenSize(float width, float height) {
+        mScreenWidth = width;
+        mScreenHeight = height;
+    }
+
+    public void setScaleRange(float minScale, float maxScale) {
+        mMinScale = minScale;
+        mMaxScale = maxScale;
+    }
+
+    /**
+     * Shows the content at the given scale, centered.
+     */
+    public void reset(float scale) {
+        mScale = scale;
+        float w = mScreenWidth / scale;
+        float h = mScreenHeight / scale;
+        mLeft = (mContentWidth - w) / 2;
+        mTop = (mContentHeight - h) / 2;
+        mRight = mLeft + w;
+        mBottom = mTop + h;
+        clamp(false);
+    }
+
+    /**
+     * Sets the point zooming keeps in place: content point (x, y) stays at
+     * (fractionX, fractionY) of the screen size.
+     */
+    public void setFocalPoint(float x, float y, float fractionX, float fractionY) {
+        mFocalX = x;
+        mFocalY = y;
+        mFocalFractionX = fractionX;
+        mFocalFractionY = fractionY;
+    }
+
+    /**
+     * Sets the scale around the focal point, clamped to the scale range if
+     * adjust is true.
+     */
+    public void setZoom(float scale, boolean adjust) {
+        if (adjust) {
+            scale = Math.min(mMaxScale, Math.max(mMinScale, scale));
+        }
+        mScale = scale;
+        float w = mScreenWidth / scale;
+        float h = mScreenHeight / scale;
+        mLeft = mFocalX - w * mFocalFractionX;
+        mTop = mFocalY - h * mFocalFractionY;
+        mRight = mLeft + w;
+        mBottom = mTop + h;
+        clamp(false);
+    }
+
+    /**
+     * Moves the window by a drag of (distanceX, distanceY) screen pixels. Past
+     * the content edges, up to overscroll times the window size, the window
+     * moves resistance times slower. Returns false if it cannot move.
+     */
+    public boolean scroll(float distanceX, float distanceY, float overscroll, float resistance) {
+        distanceX = canScrollX()? distanceX / mScale : 0;
+        distanceY = canScrollY()? distanceY / mScale : 0;
+        if (distanceX == 0 && distanceY == 0) {
+            return false;
+        }
+        float w = mRight - mLeft;
+        float h = mBottom - mTop;
+        if (mLeft + distanceX < 0 || mRight + distanceX > mContentWidth) {
+            distanceX *= resistance;
+        }
+        if (mTop + distanceY < 0 || mBottom + distanceY > mContentHeight) {
+            distanceY *= resistance;
+        }
+        float overX = overscroll * w;
+        float overY = overscroll * h;
+        float left = Math.max(-overX, Math.min(mContentWidth + overX - w, mLeft + distanceX));
+        float top = Math.max(-overY, Math.min(mContentHeight + overY - h, mTop + distanceY));
+        offsetTo(left, top, overscroll > 0);
+        return true;
+    }
+
+    /**
+     * Moves the window origin to (left, top), e.g. for a scroller step.
+     */
+    public void offsetTo(float left, float top, boolean overscroll) {
+        mRight += left - mLeft;
+        mBottom += top - mTop;
+        mLeft = left;
+        mTop = top;
+        clamp(overscroll);
+    }
+
+    /**
+     * Centers the axes where the scaled content fits the screen, keeps the
+     * window inside the content on the others unless overscroll is true and
+     * updates the matrix. Returns true if the window had to be moved or
+     * centered.
+     */
+    public boolean clamp(boolean overscroll) {
+        boolean check = false;
+        float delta;
+        if (canScrollX()) {
+            // check if the window extends on the left or right
+            if (!overscroll && ((delta = -mLeft) > 0 || (delta = mContentWidth - mRight) < 0)) {
+                check = true;
+                mLeft += delta;
+                mRight += delta;
+            }
+        } else {
+            // center horizontally
+            check = true;
+            float w = mRight - mLeft;
+            mLeft = (mContentWidth - w) / 2;
+            mRight = mLeft + w;
+        }
+        if (canScrollY()) {
+            // check if the window extends on the top or bottom
+            if (!overscroll && ((delta = -mTop) > 0 || (delta = mContentHeight - mBottom) < 0)) {
+                check = true;
+                mTop += delta;
+                mBottom += delta;
+            }
+        } else {
+            // center vertically
+            check = true;
+            float h = mBottom - mTop;
+            mTop = (mContentHeight - h) / 2;
+            mBottom = mTop + h;
+        }
+        // Matrix.setRectToRect(window, screen, FILL)
+        mScaleX = mScreenWidth / (mRight - mLeft);
+        mScaleY = mScreenHeight / (mBottom - mTop);
+        mTransX = -mLeft * mScaleX;
+        mTransY = -mTop * mScaleY;
+        return check;
+    }
+
+    /**
+     * Returns true if the scaled content is wider than the screen.
+     */
+    public boolean canScrollX() {
+        return mContentWidth * mScale > mScreenWidth;
+    }
+
+    public boolean canScrollY() {
+        return mContentHeight * mScale > mScreenHeight;
+    }
+
+    public float getContentWidth() {
+        return mContentWidth;
+    }
+
+    public float getContentHeight() {
+        return mContentHeight;
+    }
+
+    public float getScreenWidth() {
+        return mScreenWidth;
+    }
+
+    public float getScreenHeight() {
+        return mScreenHeight;
+    }
+
+    public float getLeft() {
+        return mLeft;
+    }
+
+    public float getTop() {
+        return mTop;
+    }
+
+    public float getRight() {
+        return mRight;
+    }
+
+    public float getBottom() {
+        return mBottom;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public float getMinScale() {
+        return mMinScale;
+    }
+
+    public float getMaxScale() {
+        return mMaxScale;
+    }
+
+    public float getFocalX() {
+        return mFocalX;
+    }
+
+    public float getFocalY() {
+        return mFocalY;
+    }
+
+    public float getFocalFractionX() {
+        return mFocalFractionX;
+    }
+
+    public float getFocalFractionY() {
+        return mFocalFractionY;
+    }
+
+    public float getScaleX() {
+        return mScaleX;
+    }
+
+    public float getScaleY() {
+        return mScaleY;
+    }
+
+    public float getTransX() {
+        return mTransX;
+    }
+
+    public float getTransY() {
+        return mTransY;
+    }
+
+    /**
+     * Maps screen x to content coordinates.
+     */
+    public float toContentX(float x) {
+        return (x - mTransX) / mScaleX;
+    }
+
+    public float toContentY(float y) {
+        return (y - mTransY) / mScaleY;
+    }
+}
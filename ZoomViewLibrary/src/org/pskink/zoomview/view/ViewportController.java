@@ -0,0 +1,101 @@
+package org.pskink.zoomview.view;
+
+import java.util.ArrayList;
+
+/**
+ * Links the viewports of several {@link ZoomView}s: a pan or zoom in any of
+ * them is applied to all the others, at most once per frame however many touch
+ * events or scroller steps came in between.
+ *
+ * The shared viewport is the center as a fraction of the content size and the
+ * zoom as the width of the content on screen, so views of different sizes, or
+ * showing scans of different resolutions, stay aligned. Every view still maps
+ * it to its own matrix.
+ *
+ * Views showing the same source should also share the decoded tiles, e.g.
+ * <pre>
+ * TiledDrawable d = new TiledDrawable(pyramid);
+ * left.setImageDrawable(d);
+ * right.setImageDrawable(d.getConstantState().newDrawable());
+ * </pre>
+ * so both use one {@link TileCache} and each tile is decoded once. Recycle each
+ * of them, the cache and the pyramid are released with the last one.
+ *
+ * Only attached views are held, a view leaves the controller when it is
+ * detached from its window and comes back when attached again.
+ */
+public class ViewportController implements FrameScheduler.Callback {
+    private final static String TAG = "ViewportController";
+
+    private final ArrayList<ZoomView> mViews;
+    private final FrameScheduler mScheduler;
+    private boolean mHasViewport;
+    private float mZoom;
+    private float mFractionX;
+    private float mFractionY;
+    private ZoomView mSource;
+
+    public ViewportController() {
+        mViews = new ArrayList<ZoomView>();
+        mScheduler = FrameScheduler.create(this);
+    }
+
+    /**
+     * Same as view.setViewportController(this).
+     */
+    public void link(ZoomView view) {
+        view.setViewportController(this);
+    }
+
+    public void unlink(ZoomView view) {
+        if (view.getViewportController() == this) {
+            view.setViewportController(null);
+        }
+    }
+
+    void add(ZoomView view) {
+        if (mViews.contains(view)) {
+            return;
+        }
+        mViews.add(view);
+        if (mHasViewport) {
+            view.applyViewport(mZoom, mFractionX, mFractionY);
+        }
+    }
+
+    void remove(ZoomView view) {
+        mViews.remove(view);
+        if (mSource == view) {
+            mSource = null;
+        }
+        if (mViews.isEmpty()) {
+            mScheduler.cancel();
+            mHasViewport = false;
+        }
+    }
+
+    /**
+     * Called by a linked view whose viewport changed, zoom is the content width
+     * on screen, (fractionX, fractionY) the center of the window.
+     */
+    void onViewportChanged(ZoomView source, float zoom, float fractionX, float fractionY) {
+        mZoom = zoom;
+        mFractionX = fractionX;
+        mFractionY = fractionY;
+        mHasViewport = true;
+        mSource = source;
+        mScheduler.postFrame();
+    }
+
+    @Override
+    public void doFrame(long frameTime) {
+        ArrayList<ZoomView> views = mViews;
+        for (int i = 0; i < views.size(); i++) {
+            ZoomView view = views.get(i);
+            if (view != mSource) {
+                view.applyViewport(mZoom, mFractionX, mFractionY);
+            }
+        }
+        mSource = null;
+    }
+}
@@ -0,0 +1,18 @@
+package org.pskink.zoomview.view;
+
+import android.graphics.RectF;
+
+/**
+ * Implemented by Drawables that can skip primitives outside the visible area:
+ * {@link ZoomView} calls {@link #setViewport(RectF, float)} right before every
+ * draw(), so the drawing cost grows with what is visible rather than with the
+ * content size.
+ */
+public interface ViewportDrawable {
+    /**
+     * @param visible the visible part of the drawable bounds, in drawable
+     *        coordinates. Only valid for the duration of the call.
+     * @param scale the number of screen pixels per drawable unit
+     */
+    public void setViewport(RectF visible, float scale);
+}
@@ -0,0 +1,87 @@
+package org.pskink.zoomview.view;
+
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Calls a {@link ZoomView.OnViewportChangeListener} when the scale or the
+ * visible rect really changed, at most once per min interval, or only once the
+ * view settled. A change held back by the interval is reported when it runs
+ * out, so the listener always ends up with the last viewport.
+ */
+class ViewportNotifier implements Runnable {
+    private final static String TAG = "ViewportNotifier";
+
+    private final ZoomView.OnViewportChangeListener mListener;
+    private final long mMinInterval;
+    private final Handler mHandler;
+    private boolean mReported;
+    private float mScale;
+    private RectF mVisible;
+    private boolean mPending;
+    private float mPendingScale;
+    private RectF mPendingVisible;
+    private long mLastTime;
+
+    /**
+     * minInterval in milliseconds, ZoomView.NOTIFY_WHEN_SETTLED to report
+     * settled viewports only.
+     */
+    ViewportNotifier(ZoomView.OnViewportChangeListener listener, long minInterval) {
+        mListener = listener;
+        mMinInterval = minInterval;
+        mHandler = new Handler(Looper.getMainLooper());
+        mVisible = new RectF();
+        mPendingVisible = new RectF();
+    }
+
+    void update(float scale, RectF visible, boolean settled) {
+        if (mReported && scale == mScale && visible.equals(mVisible)) {
+            // back where it was last reported
+            cancel();
+            return;
+        }
+        mPending = true;
+        mPendingScale = scale;
+        mPendingVisible.set(visible);
+        if (settled) {
+            deliver();
+            return;
+        }
+        if (mMinInterval == ZoomView.NOTIFY_WHEN_SETTLED) {
+            return;
+        }
+        long next = mLastTime + mMinInterval;
+        if (SystemClock.uptimeMillis() >= next) {
+            deliver();
+        } else {
+            mHandler.removeCallbacks(this);
+            mHandler.postAtTime(this, next);
+        }
+    }
+
+    void cancel() {
+        mPending = false;
+        mHandler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        if (mPending) {
+            deliver();
+        }
+    }
+
+    private void deliver() {
+        mHandler.removeCallbacks(this);
+        mPending = false;
+        mReported = true;
+        mScale = mPendingScale;
+        mVisible.set(mPendingVisible);
+        mLastTime = SystemClock.uptimeMillis();
+        // a copy, the listener may keep it
+        mListener.onViewportChanged(mScale, new RectF(mVisible));
+    }
+}
@@ -0,0 +1,153 @@
+package org.pskink.zoomview.view;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Cap;
+import android.graphics.Paint.Style;
+import android.graphics.Path;
+import android.graphics.Path.Direction;
+import android.view.animation.AnimationUtils;
+
+/**
+ * Animates the scale and the position of a {@link ZoomView} together, e.g. the
+ * double tap zoom to a point. Runs on a {@link FrameScheduler}, so the viewport
+ * is updated exactly once per frame, and is stopped by cancel() when a new
+ * gesture starts.
+ *
+ * The scale follows a cubic curve in log space, which zooms at a steady
+ * perceived speed. A zoom started right after another one was running or
+ * cancelled continues at the speed the previous one had.
+ */
+class ZoomAnimator implements FrameScheduler.Callback {
+    private final static String TAG = "ZoomAnimator";
+
+    private static final float MAX_ALPHA = 0.75f;
+    // how long the speed of a stopped zoom is carried over to a new one
+    private static final long RETARGET_MILLIS = 50;
+    private static final float MAX_START_VELOCITY = 3;
+
+    private final ZoomView mView;
+    private final FrameScheduler mScheduler;
+    private final long mDuration;
+    private boolean mRunning;
+    private long mStartTime;
+    private long mLastFrameTime;
+    private float mFrom;
+    private float mTo;
+    // ln(mTo / mFrom)
+    private float mSpan;
+    private float mVelocity;
+    // current d(ln scale) / dt, per millisecond
+    private float mRate;
+    private float mX;
+    private float mY;
+    private float mFromFractionX;
+    private float mFromFractionY;
+    private float mToFractionX;
+    private float mToFractionY;
+    private int mAlpha;
+    private Path mPath;
+    private Paint mPathPaint;
+
+    ZoomAnimator(ZoomView view) {
+        mView = view;
+        mScheduler = FrameScheduler.create(this);
+        mDuration = 2 * view.getResources().getInteger(android.R.integer.config_longAnimTime);
+
+        mPathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPathPaint.setStyle(Style.STROKE);
+        mPathPaint.setStrokeCap(Cap.SQUARE);
+        mPath = new Path();
+        mPath.addCircle(0, 0, 16, Direction.CCW);
+    }
+
+    /**
+     * Zooms from scale to toScale around content point (x, y), moving it from
+     * (fractionX, fractionY) to (toFractionX, toFractionY) of the view size.
+     */
+    void start(float scale, float toScale, float x, float y,
+            float fractionX, float fractionY, float toFractionX, float toFractionY) {
+        long now = AnimationUtils.currentAnimationTimeMillis();
+        float span = (float) Math.log(toScale / scale);
+        float velocity = 0;
+        if (now - mLastFrameTime <= RETARGET_MILLIS && Math.abs(span) > 0.001f) {
+            velocity = mRate * mDuration / span;
+            velocity = Math.max(0, Math.min(MAX_START_VELOCITY, velocity));
+        }
+        mFrom = scale;
+        mTo = toScale;
+        mSpan = span;
+        mVelocity = velocity;
+        mX = x;
+        mY = y;
+        mFromFractionX = fractionX;
+        mFromFractionY = fractionY;
+        mToFractionX = toFractionX;
+        mToFractionY = toFractionY;
+        mStartTime = now;
+        mRunning = true;
+        mScheduler.postFrame();
+    }
+
+    void cancel() {
+        if (mRunning) {
+            mRunning = false;
+            mScheduler.cancel();
+            // hide the focus ring
+            mView.invalidate();
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameTime) {
+        if (!mRunning) {
+            return;
+        }
+        float t = Math.max(0, Math.min(1, (frameTime - mStartTime) / (float) mDuration));
+        float t2 = t * t;
+        float t3 = t2 * t;
+        // hermite curve from 0 to 1, start slope mVelocity, end slope 0
+        float u = 3 * t2 - 2 * t3 + mVelocity * (t3 - 2 * t2 + t);
+        float du = 6 * t - 6 * t2 + mVelocity * (3 * t2 - 4 * t + 1);
+        mRate = du * mSpan / mDuration;
+        mLastFrameTime = frameTime;
+
+        float alpha = (float) Math.sin(t * Math.PI);
+        alpha = Math.min(alpha, MAX_ALPHA);
+        mAlpha = (int) (255 * alpha / MAX_ALPHA);
+
+        float scale = t < 1? mFrom * (float) Math.exp(mSpan * u) : mTo;
+        float fractionX = mFromFractionX + (mToFractionX - mFromFractionX) * u;
+        float fractionY = mFromFractionY + (mToFractionY - mFromFractionY) * u;
+        if (t < 1) {
+            mScheduler.postFrame();
+        } else {
+            mRunning = false;
+            mRate = 0;
+        }
+        mView.setViewport(scale, mX, mY, fractionX, fractionY);
+    }
+
+    /**
+     * Draws the focus ring, canvas is in content coordinates.
+     */
+    void drawFrame(Canvas canvas) {
+        canvas.save();
+        canvas.translate(mX, mY);
+        // draw white outline
+        mPathPaint.setStrokeWidth(10);
+        mPathPaint.setColor(0xffffffff);
+        mPathPaint.setAlpha(mAlpha);
+        canvas.drawPath(mPath, mPathPaint);
+        // draw black interior
+        mPathPaint.setStrokeWidth(4);
+        mPathPaint.setColor(0xff000000);
+        mPathPaint.setAlpha(mAlpha);
+        canvas.drawPath(mPath, mPathPaint);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,151 @@
+package org.pskink.zoomview.view;
+
+import android.os.SystemClock;
+
+/**
+ * Frame time and gesture latency statistics collected by a {@link ZoomView}
+ * with an {@link ZoomView.OnMetricsListener} set. Histograms are preallocated,
+ * so collecting can stay enabled in production builds.
+ */
+public class ZoomMetrics {
+    private final static String TAG = "ZoomMetrics";
+    private static final long DEFAULT_FRAME_NANOS = 1000000000L / 60;
+    private static final long[] TIME_BOUNDS_US = {
+            1000, 2000, 4000, 8000, 12000, 16000, 24000, 33000, 50000, 100000, 250000
+    };
+    private static final long[] DEPTH_BOUNDS = {
+            0, 1, 2, 4, 8, 16, 32, 64
+    };
+
+    private final Histogram mDrawTime;
+    private final Histogram mTouchLatency;
+    private final Histogram mDecodeQueue;
+    private int mFrames;
+    private int mMotionFrames;
+    private int mDroppedFrames;
+    private long mLastFrameNanos;
+    private long mFrameNanos = DEFAULT_FRAME_NANOS;
+    private long mPendingTouchTime;
+    private TileCache mTileCache;
+    private TileDecoder mTileDecoder;
+
+    ZoomMetrics() {
+        mDrawTime = new Histogram(TIME_BOUNDS_US);
+        mTouchLatency = new Histogram(TIME_BOUNDS_US);
+        mDecodeQueue = new Histogram(DEPTH_BOUNDS);
+    }
+
+    /**
+     * Duration of ZoomView.onDraw, in microseconds.
+     */
+    public Histogram getDrawTime() {
+        return mDrawTime;
+    }
+
+    /**
+     * Time from a touch event to the end of the next draw, in microseconds.
+     */
+    public Histogram getTouchLatency() {
+        return mTouchLatency;
+    }
+
+    /**
+     * Tile decode queue depth sampled every frame, empty without a tiled source.
+     */
+    public Histogram getDecodeQueueDepth() {
+        return mDecodeQueue;
+    }
+
+    public int getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * Number of frames drawn during flings and zoom animations.
+     */
+    public int getMotionFrameCount() {
+        return mMotionFrames;
+    }
+
+    /**
+     * Number of vsyncs missed during flings and zoom animations.
+     */
+    public int getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Returns the tile cache of the tiled source being shown, or null.
+     */
+    public TileCache getTileCache() {
+        return mTileCache;
+    }
+
+    /**
+     * Returns the tile decoder of the tiled source being shown, or null.
+     */
+    public TileDecoder getTileDecoder() {
+        return mTileDecoder;
+    }
+
+    public void reset() {
+        mDrawTime.reset();
+        mTouchLatency.reset();
+        mDecodeQueue.reset();
+        mFrames = mMotionFrames = mDroppedFrames = 0;
+        mLastFrameNanos = 0;
+        mPendingTouchTime = 0;
+    }
+
+    void onTouch(long eventTime) {
+        if (mPendingTouchTime == 0) {
+            mPendingTouchTime = eventTime;
+        }
+    }
+
+    /**
+     * Sets the display refresh rate dropped frames are counted with, 60 Hz by
+     * default.
+     */
+    void setRefreshRate(float hz) {
+        if (hz >= 10) {
+            mFrameNanos = (long) (1000000000L / hz);
+        }
+    }
+
+    void onFrame(long startNanos, long endNanos, boolean moving, TiledDrawable tiled) {
+        mFrames++;
+        mDrawTime.record((endNanos - startNanos) / 1000);
+        if (mPendingTouchTime != 0) {
+            mTouchLatency.record((SystemClock.uptimeMillis() - mPendingTouchTime) * 1000);
+            mPendingTouchTime = 0;
+        }
+        if (moving) {
+            mMotionFrames++;
+            if (mLastFrameNanos != 0) {
+                long missed = (startNanos - mLastFrameNanos + mFrameNanos / 2) / mFrameNanos - 1;
+                if (missed > 0) {
+                    mDroppedFrames += missed;
+                }
+            }
+            mLastFrameNanos = startNanos;
+        } else {
+            mLastFrameNanos = 0;
+        }
+        if (tiled != null) {
+            mTileCache = tiled.getTileCache();
+            mTileDecoder = tiled.getTileDecoder();
+            mDecodeQueue.record(mTileDecoder.getQueueSize());
+        } else {
+            mTileCache = null;
+            mTileDecoder = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "[frames: " + mFrames + ", motion frames: " + mMotionFrames + ", dropped: " + mDroppedFrames +
+                ", draw us: " + mDrawTime + ", touch to draw us: " + mTouchLatency +
+                ", decode queue: " + mDecodeQueue + ", cache: " + mTileCache + "]";
+    }
+}
@@ -1,5 +1,7 @@
 package org.pskink.zoomview.view;
 
+import java.util.ArrayList;
+
 import org.pskink.zoomview.R;
 
 import android.annotation.SuppressLint;
@@ -7,10 +9,11 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
-import android.graphics.Matrix.ScaleToFit;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -18,36 +21,95 @@ import android.view.ScaleGestureDetector;
 import android.view.GestureDetector.SimpleOnGestureListener;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector.SimpleOnScaleGestureListener;
+import android.view.VelocityTracker;
 import android.view.View;
-import android.view.animation.AnimationUtils;
-import android.widget.Scroller;
+import android.view.WindowManager;
 import android.widget.ZoomButtonsController.OnZoomListener;
 
 public class ZoomView extends View implements OnZoomListener {
+    // fit modes: the initial scale, and the min scale unless set explicitly
+    public static final int FIT = 0;
+    public static final int FILL = 1;
+    public static final int FIT_WIDTH = 2;
+    public static final int FIT_HEIGHT = 3;
+    // min interval of an OnViewportChangeListener reporting settled viewports only
+    public static final long NOTIFY_WHEN_SETTLED = -1;
+
     private final static String TAG = "ZoomView";
-    private static final float MAX_SCALE = 1;
+    private static final float DEFAULT_MAX_SCALE = 1;
+    private static final String ZOOM_LABEL = "Zoom: ";
+    private static final int FLING_PREFETCH_STEPS = 4;
+    // how far the content can be dragged or flung past its edges, fraction of the view size
+    private static final float OVERSCROLL = 0.1f;
+    private static final float OVERSCROLL_RESISTANCE = 0.5f;
 
-    private Scroller mScroller;
+    private KineticScroller mScroller;
+    // velocity of the focus point, the average of the pointers
+    private VelocityTracker mVelocityTracker;
+    private boolean mPinched;
     private GestureDetector mGestureDetector;
     private ScaleGestureDetector mScaleGestureDetector;
     private float mScale;
     private ScrollZoomButtonsController mZoomController;
     private Matrix mMatrix;
     private OnDrawListener mListener;
-    private ZoomAnimation mZoomAnimation;
+    private ZoomAnimator mZoomAnimator;
     private RectF mContent;
     private RectF mWindow;
     private RectF mScreen;
     private RectF mMappedContent;
     private RectF mDummy;
-    private float[] mFocalPoints;
+    private RectF mVisible;
+    private Viewport mViewport;
+    private FrameScheduler mViewportScheduler;
+    private boolean mViewportPending;
     private Drawable mDrawable;
     private float mMinScale;
+    private float mMaxScale;
+    private float mUserMinScale;
+    private int mFitMode;
     private boolean mSmall;
+    private RectF mPrefetch;
+    private int mPrefetchLevel;
+    private OnMetricsListener mMetricsListener;
+    private ZoomMetrics mMetrics;
+    private boolean mTouching;
+    private boolean mWasMoving;
+    private GestureSnapshot mSnapshot;
+    private ArrayList<Overlay> mOverlays;
+    private Matrix mInverse;
+    private float[] mPoint;
+    private Rect mContentBounds;
+    private String mContentId;
+    private SavedState mPendingState;
+    private ViewportController mController;
+    // the controller only holds attached views, so it cannot leak a detached one
+    private boolean mAttached;
+    private boolean mApplyingViewport;
+    private Minimap mMinimap;
+    private boolean mMinimapDragging;
+    private ViewportNotifier mNotifier;
+    private RectF mNotifyVisible;
     
     public interface OnDrawListener {
         public void onDraw(Canvas canvas, Drawable d, Matrix matrix, RectF window);
     }
+
+    public interface OnViewportChangeListener {
+        /**
+         * Called when the scale or the visible part of the content changed,
+         * visible is in content coordinates.
+         */
+        public void onViewportChanged(float scale, RectF visible);
+    }
+
+    public interface OnMetricsListener {
+        /**
+         * Called when a gesture, fling or zoom animation ends. metrics keeps
+         * accumulating until ZoomMetrics.reset() is called.
+         */
+        public void onMetrics(ZoomMetrics metrics);
+    }
     
     public ZoomView(Context context) {
         super(context);
@@ -55,24 +117,34 @@ public class ZoomView extends View implements OnZoomListener {
     }
     
     private void init(Context context) {
-        mScroller = new Scroller(context);
+        mScroller = new KineticScroller();
         mGestureDetector = new GestureDetector(context, mGestureListener, null, true);
         mScaleGestureDetector = new ScaleGestureDetector(context, mScaleGestureListener);
         mZoomController = new ScrollZoomButtonsController(this);
-        mZoomController.setText("Zoom: ", mScale);
+        mZoomController.setText(ZOOM_LABEL, mScale);
         
         setVerticalScrollBarEnabled(true);
         setHorizontalScrollBarEnabled(true);
         
+        mMaxScale = DEFAULT_MAX_SCALE;
+        mFitMode = FIT;
         mMatrix = new Matrix();
-        mZoomAnimation = new ZoomAnimation(this);
+        mZoomAnimator = new ZoomAnimator(this);
 
         mContent = new RectF();
         mWindow = new RectF();
         mScreen = new RectF();
         mMappedContent = new RectF();
         mDummy = new RectF();
-        mFocalPoints = new float[4];
+        mVisible = new RectF();
+        mViewport = new Viewport();
+        mViewportScheduler = FrameScheduler.create(mViewportCallback);
+        mPrefetch = new RectF();
+        mOverlays = new ArrayList<Overlay>();
+        mInverse = new Matrix();
+        mPoint = new float[2];
+        mContentBounds = new Rect();
+        mNotifyVisible = new RectF();
     }
 
     public ZoomView(Context context, AttributeSet attrs) {
@@ -80,6 +152,10 @@ public class ZoomView extends View implements OnZoomListener {
         init(context);
 
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.XoomView);
+        mUserMinScale = a.getFloat(R.styleable.XoomView_minScale, 0);
+        mMaxScale = a.getFloat(R.styleable.XoomView_maxScale, DEFAULT_MAX_SCALE);
+        mFitMode = a.getInt(R.styleable.XoomView_fitMode, FIT);
+        checkScaleRange(mUserMinScale, mMaxScale);
         Drawable d = a.getDrawable(R.styleable.XoomView_src);
         if (d != null) {
             setImageDrawable(d);
@@ -88,58 +164,398 @@ public class ZoomView extends View implements OnZoomListener {
     }
 
     public void setImageDrawable(Drawable d) {
+        setImageDrawable(d, false);
+    }
+
+    /**
+     * Swaps the drawable without a layout pass. If keepViewport is true the
+     * current viewport is kept when the new drawable has the same size, or else
+     * remapped to the same relative position and zoom, otherwise the zoom is
+     * reset to the fit mode.
+     */
+    public void setImageDrawable(Drawable d, boolean keepViewport) {
         if (d == null) {
             throw new NullPointerException("Drawable == null");
         }
+        if (mDrawable != null && mDrawable != d) {
+            mDrawable.setCallback(null);
+        }
         mDrawable = d;
         mDrawable.setCallback(this);
-        requestLayout();
-        invalidate();
+        if (mMinimap != null) {
+            mMinimap.setDrawable(d);
+        }
+        if (mSnapshot != null) {
+            // showing the old drawable
+            mSnapshot.release();
+        }
+        if (!keepViewport || mContent.isEmpty() || getWidth() == 0 || getHeight() == 0) {
+            configure();
+            invalidate();
+            return;
+        }
+
+        Rect bounds = getContentBounds(d);
+        if (bounds.width() == mContent.width() && bounds.height() == mContent.height()) {
+            // same geometry, only the pixels change
+            if (d.getBounds().isEmpty()) {
+                d.setBounds(bounds);
+            }
+            invalidate();
+            return;
+        }
+        reconfigure();
+    }
+
+    /**
+     * Sets how the content is fitted into the view: FIT, FILL, FIT_WIDTH or
+     * FIT_HEIGHT. Resets the zoom.
+     */
+    public void setFitMode(int fitMode) {
+        if (fitMode < FIT || fitMode > FIT_HEIGHT) {
+            throw new IllegalArgumentException("invalid fit mode: " + fitMode);
+        }
+        mFitMode = fitMode;
+        configure();
+    }
+
+    public int getFitMode() {
+        return mFitMode;
+    }
+
+    /**
+     * Sets the min scale, 0 means the scale of the fit mode. Resets the zoom.
+     */
+    public void setMinScale(float minScale) {
+        checkScaleRange(minScale, mMaxScale);
+        mUserMinScale = minScale;
+        configure();
+    }
+
+    public float getMinScale() {
+        return mMinScale;
+    }
+
+    /**
+     * Sets the max scale, 1 by default. Above 1 the content is magnified, a
+     * TiledDrawable keeps drawing its finest pyramid level. Resets the zoom.
+     */
+    public void setMaxScale(float maxScale) {
+        checkScaleRange(mUserMinScale, maxScale);
+        mMaxScale = maxScale;
+        configure();
+    }
+
+    private static void checkScaleRange(float minScale, float maxScale) {
+        if (maxScale <= 0) {
+            throw new IllegalArgumentException("maxScale <= 0");
+        }
+        if (minScale < 0) {
+            throw new IllegalArgumentException("minScale < 0");
+        }
+        if (minScale > maxScale) {
+            throw new IllegalArgumentException("minScale > maxScale: " + minScale + " > " + maxScale);
+        }
+    }
+
+    public float getMaxScale() {
+        return mMaxScale;
+    }
+
+    public float getScale() {
+        return mViewport.getScale();
+    }
+
+    /**
+     * Sets an id of the current content, e.g. its uri. A saved viewport is
+     * only restored if the id of the content it was saved with matches.
+     */
+    public void setContentId(String contentId) {
+        mContentId = contentId;
+    }
+
+    public String getContentId() {
+        return mContentId;
+    }
+
+    /**
+     * Links the viewport of this view to the other views of controller, null
+     * unlinks it. A detached view follows the others again once attached.
+     */
+    public void setViewportController(ViewportController controller) {
+        if (mController == controller) {
+            return;
+        }
+        if (mController != null && mAttached) {
+            mController.remove(this);
+        }
+        mController = controller;
+        if (controller != null && mAttached) {
+            controller.add(this);
+        }
+    }
+
+    public ViewportController getViewportController() {
+        return mController;
+    }
+
+    /**
+     * Called by the ViewportController with the viewport of another view.
+     */
+    void applyViewport(float zoom, float fractionX, float fractionY) {
+        if (mContent.isEmpty()) {
+            return;
+        }
+        mScroller.forceFinished();
+        mZoomAnimator.cancel();
+        mApplyingViewport = true;
+        setFocalPoints(fractionX * mContent.width(), fractionY * mContent.height(), 0.5f, 0.5f);
+        setZoom(zoom / mContent.width(), true);
+        mApplyingViewport = false;
+    }
+
+    private void dispatchViewportChanged() {
+        if (mController != null && !mApplyingViewport) {
+            mController.onViewportChanged(this, mScale * mContent.width(),
+                    mWindow.centerX() / mContent.width(), mWindow.centerY() / mContent.height());
+        }
+        notifyViewportChanged();
+    }
+
+    private void notifyViewportChanged() {
+        if (mNotifier == null || mContent.isEmpty()) {
+            return;
+        }
+        if (!mNotifyVisible.setIntersect(mWindow, mContent)) {
+            mNotifyVisible.setEmpty();
+        }
+        mNotifier.update(mScale, mNotifyVisible, isSettled());
     }
 
     @Override
     protected boolean verifyDrawable(Drawable who) {
         return who == mDrawable || super.verifyDrawable(who);
     }
+
+    private TiledDrawable getTiledDrawable() {
+        return mDrawable instanceof TiledContent? ((TiledContent) mDrawable).getTiledDrawable() : null;
+    }
     
+    private Rect getContentBounds(Drawable d) {
+        Rect bounds = d.getBounds();
+        int dW = bounds.width();
+        int dH = bounds.height();
+        if (dW <= 0 || dH <= 0) {
+            dW = d.getIntrinsicWidth();
+            dH = d.getIntrinsicHeight();
+        }
+        if (dW <= 0 || dH <= 0) {
+            String msg = "drawable bounds not set (setBounds method) or (getIntrinsicWidth() or getIntrinsicHeight()) returns <= 0";
+            throw new IllegalArgumentException(msg);
+        }
+        mContentBounds.set(0, 0, dW, dH);
+        return mContentBounds;
+    }
+
     @Override
-    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (oldw == 0 || oldh == 0 || mContent.isEmpty()) {
+            configure();
+        } else {
+            reconfigure();
+        }
+    }
+
+    /**
+     * Like configure() but keeps the relative position and zoom of the viewport.
+     */
+    private void reconfigure() {
+        flushViewport();
+        float fx = mWindow.centerX() / mContent.width();
+        float fy = mWindow.centerY() / mContent.height();
+        float zoom = mScale / mMinScale;
+        configure();
+        setFocalPoints(fx * mContent.width(), fy * mContent.height(), 0.5f, 0.5f);
+        setZoom(mMinScale * zoom, true);
+    }
+
+    private void configure() {
         float w = getWidth();
         float h = getHeight();
         if (mDrawable != null && w != 0 && h != 0) {
-            Rect bounds = mDrawable.getBounds();
+            Rect bounds = getContentBounds(mDrawable);
             int dW = bounds.width();
             int dH = bounds.height();
-            if (dW <= 0 || dH <= 0) {
-                dW = mDrawable.getIntrinsicWidth();
-                dH = mDrawable.getIntrinsicHeight();
+
+            float scale;
+            switch (mFitMode) {
+                case FILL:
+                    scale = Math.max(w / dW, h / dH);
+                    break;
+                case FIT_WIDTH:
+                    scale = w / dW;
+                    break;
+                case FIT_HEIGHT:
+                    scale = h / dH;
+                    break;
+                default:
+                    scale = Math.min(w / dW, h / dH);
+                    break;
             }
-            if (dW <= 0 || dH <= 0) {
-                String msg = "drawable bounds not set (setBounds method) or (getIntrinsicWidth() or getIntrinsicHeight()) returns <= 0";
-                throw new IllegalArgumentException(msg);
+            // the fit scale is the min scale unless set, and the initial scale within the range
+            mMinScale = mUserMinScale > 0? mUserMinScale : Math.min(scale, mMaxScale);
+            scale = Math.min(mMaxScale, Math.max(mMinScale, scale));
+            mScale = scale;
+
+            // if mSmall = true: Drawable fits the View at max scale, nothing to zoom or pan
+            mSmall = mMinScale >= mMaxScale && dW * mMaxScale <= w && dH * mMaxScale <= h;
+
+            if (mDrawable.getBounds().isEmpty()) {
+                mDrawable.setBounds(bounds);
             }
 
-            float scale = Math.min(w / dW, h / dH);
+            mContent.set(0, 0, dW, dH);
+            mScreen.set(0, 0, w, h);
+            mViewport.setContentSize(dW, dH);
+            mViewport.setScreenSize(w, h);
+            mViewport.setScaleRange(mMinScale, mMaxScale);
+            // start centered
+            mViewport.reset(scale);
+            syncViewport();
+            if (mMinimap != null) {
+                mMinimap.layout(mScreen, mContent);
+            }
+            for (int i = 0; i < mOverlays.size(); i++) {
+                mOverlays.get(i).setScaleRange(mMinScale, mMaxScale);
+                mOverlays.get(i).setScale(mScale);
+            }
+            invalidate();
+            notifyViewportChanged();
+            restoreViewport();
+        }
+    }
 
-            mScale = mMinScale = scale;
+    private void restoreViewport() {
+        SavedState ss = mPendingState;
+        if (ss == null) {
+            return;
+        }
+        mPendingState = null;
+        if (ss.contentId == null? mContentId != null : !ss.contentId.equals(mContentId)) {
+            return;
+        }
+        setFocalPoints(ss.left * mContent.width(), ss.top * mContent.height(), 0, 0);
+        setZoom(ss.scale, true);
+    }
 
-            // if mSmall = true: Drawable is smaller than View
-            mSmall = mScale >= MAX_SCALE;
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        flushViewport();
+        SavedState ss = new SavedState(super.onSaveInstanceState());
+        if (mContent.isEmpty()) {
+            // not configured yet, keep what is still to be restored
+            if (mPendingState != null) {
+                ss.copyFrom(mPendingState);
+            } else {
+                ss.contentId = mContentId;
+                ss.scale = -1;
+            }
+        } else {
+            ss.scale = mScale;
+            ss.left = mWindow.left / mContent.width();
+            ss.top = mWindow.top / mContent.height();
+            ss.contentId = mContentId;
+        }
+        return ss;
+    }
 
-            if (bounds.isEmpty()) {
-                mDrawable.setBounds(0, 0, dW, dH);
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+        if (ss.scale > 0) {
+            mPendingState = ss;
+            if (!mContent.isEmpty()) {
+                restoreViewport();
             }
+        }
+    }
 
-            mContent.set(0, 0, dW, dH);
-            mWindow.set(0, 0, w / scale, h / scale);
-            mScreen.set(0, 0, w, h);
-            // initialize mMatrix, equal to: setScale(scale, scale)
-            mMatrix.setRectToRect(mWindow, mScreen, ScaleToFit.FILL);
-            mMatrix.mapRect(mMappedContent, mContent);
+    /**
+     * Viewport of a ZoomView: the scale, the window origin as fractions of the
+     * content size and the content id.
+     */
+    static class SavedState extends BaseSavedState {
+        float scale;
+        float left;
+        float top;
+        String contentId;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            scale = in.readFloat();
+            left = in.readFloat();
+            top = in.readFloat();
+            contentId = in.readString();
+        }
 
-            updateMatrix(mWindow);
+        void copyFrom(SavedState ss) {
+            scale = ss.scale;
+            left = ss.left;
+            top = ss.top;
+            contentId = ss.contentId;
         }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeFloat(scale);
+            out.writeFloat(left);
+            out.writeFloat(top);
+            out.writeString(contentId);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    public void setOnViewportChangeListener(OnViewportChangeListener listener) {
+        setOnViewportChangeListener(listener, 0);
+    }
+
+    /**
+     * Reports the viewport when it changes, at most once per minInterval
+     * milliseconds and always once it settles, or with NOTIFY_WHEN_SETTLED only
+     * when no gesture, fling or zoom animation is in progress. The current
+     * viewport is reported right away.
+     */
+    public void setOnViewportChangeListener(OnViewportChangeListener listener, long minInterval) {
+        if (minInterval < 0 && minInterval != NOTIFY_WHEN_SETTLED) {
+            throw new IllegalArgumentException("minInterval < 0");
+        }
+        if (mNotifier != null) {
+            mNotifier.cancel();
+        }
+        mNotifier = listener != null? new ViewportNotifier(listener, minInterval) : null;
+        notifyViewportChanged();
     }
 
     public void setOnDrawListener(OnDrawListener listener) {
@@ -147,10 +563,150 @@ public class ZoomView extends View implements OnZoomListener {
         invalidate();
     }
 
+    /**
+     * Adds an overlay drawn on top of the Drawable (and of what an OnDrawListener
+     * draws), after the overlays added before.
+     */
+    public void addOverlay(Overlay overlay) {
+        mOverlays.add(overlay);
+        overlay.setScaleRange(mMinScale, mMaxScale);
+        overlay.setScale(mScale);
+        invalidate();
+    }
+
+    public void removeOverlay(Overlay overlay) {
+        if (mOverlays.remove(overlay)) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Shows an overview of the content with the visible window marked while
+     * zoomed in. Dragging inside it moves the window.
+     */
+    public void setMinimapEnabled(boolean enabled) {
+        if (enabled && mMinimap == null) {
+            mMinimap = new Minimap();
+            mMinimap.setDrawable(mDrawable);
+            if (!mContent.isEmpty()) {
+                mMinimap.layout(mScreen, mContent);
+            }
+        } else if (!enabled && mMinimap != null) {
+            mMinimap.recycle();
+            mMinimap = null;
+            mMinimapDragging = false;
+        }
+        invalidate();
+    }
+
+    private boolean isMinimapShown() {
+        return mMinimap != null && (mMappedContent.width() > mScreen.width() + 1 ||
+                mMappedContent.height() > mScreen.height() + 1);
+    }
+
+    private boolean onMinimapTouch(MotionEvent event, int action) {
+        if (action == MotionEvent.ACTION_DOWN) {
+            mMinimapDragging = isMinimapShown() && mMinimap.contains(event.getX(), event.getY());
+        }
+        if (!mMinimapDragging) {
+            return false;
+        }
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            mMinimapDragging = false;
+            mTouching = false;
+            // full quality redraw
+            invalidate();
+            notifyViewportChanged();
+            return true;
+        }
+        mTouching = true;
+        mZoomAnimator.cancel();
+        mScroller.forceFinished();
+        mMinimap.toContent(event.getX(), event.getY(), mContent, mPoint);
+        setFocalPoints(mPoint[0], mPoint[1], 0.5f, 0.5f);
+        setZoom(mScale, false);
+        return true;
+    }
+
+    /**
+     * When enabled, a bitmap snapshot of the content is captured when a gesture
+     * starts and only the snapshot is transformed until the gesture, fling or
+     * zoom animation ends, followed by one full quality redraw. Meant for
+     * Drawables that are expensive to draw, ignored for {@link TiledContent}
+     * Drawables like TiledDrawable or StreamingDrawable and when an
+     * OnDrawListener is set.
+     */
+    public void setGestureSnapshotEnabled(boolean enabled) {
+        if (enabled && mSnapshot == null) {
+            mSnapshot = new GestureSnapshot();
+        } else if (!enabled && mSnapshot != null) {
+            mSnapshot.recycle();
+            mSnapshot = null;
+            invalidate();
+        }
+    }
+
+    /**
+     * Enables frame time and latency metrics, null disables them.
+     */
+    public void setOnMetricsListener(OnMetricsListener listener) {
+        mMetricsListener = listener;
+        if (listener == null) {
+            mMetrics = null;
+        } else if (mMetrics == null) {
+            mMetrics = new ZoomMetrics();
+            updateRefreshRate();
+        }
+    }
+
+    /**
+     * Dropped frames are counted in vsyncs of the actual display, e.g. 90 or
+     * 120 Hz ones.
+     */
+    private void updateRefreshRate() {
+        if (mMetrics == null) {
+            return;
+        }
+        WindowManager wm = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        if (wm != null) {
+            mMetrics.setRefreshRate(wm.getDefaultDisplay().getRefreshRate());
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // the rate can change while detached, e.g. with a power saving mode
+        updateRefreshRate();
+        mAttached = true;
+        if (mController != null) {
+            // catches up with the viewport of the other views
+            mController.add(this);
+        }
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        mAttached = false;
+        if (mController != null) {
+            mController.remove(this);
+        }
         mZoomController.setVisible(false);
+        // no more frames for a view that is not shown
+        mZoomAnimator.cancel();
+        // the pending change is applied by the next draw
+        mViewportScheduler.cancel();
+        if (mNotifier != null) {
+            mNotifier.cancel();
+        }
+        if (mSnapshot != null) {
+            mSnapshot.recycle();
+        }
+        if (mMinimap != null) {
+            // made again on the next draw
+            mMinimap.recycle();
+        }
     }
 
     @Override
@@ -158,107 +714,286 @@ public class ZoomView extends View implements OnZoomListener {
         if (mSmall) {
             return false;
         }
+        int action = event.getAction() & MotionEvent.ACTION_MASK;
+        if (mMinimap != null && onMinimapTouch(event, action)) {
+            return true;
+        }
+        if (action != MotionEvent.ACTION_MOVE) {
+            // only moves are coalesced, the rest sees the viewport they act on
+            flushViewport();
+        }
+        if (action == MotionEvent.ACTION_DOWN) {
+            // a new gesture takes over from where the animation or fling is now
+            mZoomAnimator.cancel();
+            mScroller.forceFinished();
+            mPinched = false;
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        if (mVelocityTracker != null) {
+            trackFocus(event, action);
+        }
         boolean res = mScaleGestureDetector.onTouchEvent(event);
         if (!mScaleGestureDetector.isInProgress()) {
             res = mGestureDetector.onTouchEvent(event);
         }
+        mTouching = action != MotionEvent.ACTION_UP && action != MotionEvent.ACTION_CANCEL;
+        if (!mTouching) {
+            if (mPinched && mScroller.isFinished() && action == MotionEvent.ACTION_UP) {
+                // GestureDetector did not see the pinch, keep the momentum of its focus
+                mVelocityTracker.computeCurrentVelocity(1000);
+                fling(mVelocityTracker.getXVelocity(), mVelocityTracker.getYVelocity());
+            }
+            if (mScroller.isFinished()) {
+                springBack();
+            }
+            if (mVelocityTracker != null) {
+                mVelocityTracker.recycle();
+                mVelocityTracker = null;
+            }
+        }
+        if (!mTouching && !isMoving()) {
+            // gesture ended without a fling
+            if (mSnapshot != null && mSnapshot.isActive()) {
+                invalidate();
+            }
+            notifyViewportChanged();
+            if (mMetrics != null) {
+                mMetricsListener.onMetrics(mMetrics);
+            }
+        }
+        if (mMetrics != null) {
+            // latency from the oldest sample batched into this event
+            mMetrics.onTouch(event.getHistorySize() > 0?
+                    event.getHistoricalEventTime(0) : event.getEventTime());
+        }
         return res;
     }
     
-    @SuppressLint("WrongCall")
+    /**
+     * Adds the focus point of event to mVelocityTracker, with its batched
+     * samples. The tracker alone would follow the first pointer, which moves
+     * outwards during a pinch even if the focus stands still.
+     */
+    private void trackFocus(MotionEvent event, int action) {
+        if (action == MotionEvent.ACTION_POINTER_DOWN || action == MotionEvent.ACTION_POINTER_UP) {
+            // the focus jumps when a pointer comes or goes, start over
+            mVelocityTracker.clear();
+        }
+        // a pointer going up is not part of the focus any more
+        int skip = action == MotionEvent.ACTION_POINTER_UP? event.getActionIndex() : -1;
+        int count = event.getPointerCount();
+        int div = skip < 0? count : count - 1;
+        if (div == 0) {
+            return;
+        }
+        int history = event.getHistorySize();
+        for (int h = 0; h <= history; h++) {
+            float x = 0;
+            float y = 0;
+            for (int i = 0; i < count; i++) {
+                if (i != skip) {
+                    x += h < history? event.getHistoricalX(i, h) : event.getX(i);
+                    y += h < history? event.getHistoricalY(i, h) : event.getY(i);
+                }
+            }
+            long time = h < history? event.getHistoricalEventTime(h) : event.getEventTime();
+            MotionEvent focus = MotionEvent.obtain(event.getDownTime(), time, MotionEvent.ACTION_MOVE,
+                    x / div, y / div, 0);
+            mVelocityTracker.addMovement(focus);
+            focus.recycle();
+        }
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         if (mDrawable == null) {
             return;
         }
-        
-        boolean isAnimating = false;
-        if (mZoomAnimation.hasStarted() && !mZoomAnimation.hasEnded()) {
-            long t = AnimationUtils.currentAnimationTimeMillis();
-            mZoomAnimation.getTransformation(t, null);
-            isAnimating = true;
+        // the frame callback may come after the draw, e.g. with the Handler fallback
+        flushViewport();
+        if (mMetrics == null) {
+            drawContent(canvas);
+            drawMinimap(canvas);
+            return;
         }
-        
+
+        long start = System.nanoTime();
+        drawContent(canvas);
+        drawMinimap(canvas);
+        boolean moving = isMoving();
+        mMetrics.onFrame(start, System.nanoTime(), moving, getTiledDrawable());
+        if (mWasMoving && !moving && !mTouching) {
+            mMetricsListener.onMetrics(mMetrics);
+        }
+        mWasMoving = moving;
+    }
+
+    private void drawMinimap(Canvas canvas) {
+        if (isMinimapShown()) {
+            mMinimap.draw(canvas, mWindow, mContent);
+        }
+    }
+
+    /**
+     * Returns true if no gesture, fling, spring back or zoom animation is in
+     * progress, i.e. the viewport will not change until the next touch.
+     */
+    public boolean isSettled() {
+        return !mTouching && !isMoving();
+    }
+
+    private boolean isMoving() {
+        return !mScroller.isFinished() || mZoomAnimator.isRunning();
+    }
+
+    private boolean useSnapshot() {
+        if (mSnapshot == null || mListener != null || mDrawable instanceof TiledContent) {
+            return false;
+        }
+        if (isSettled()) {
+            // full quality redraw
+            mSnapshot.release();
+            return false;
+        }
+        if (mSnapshot.needsCapture(mContent, mWindow, mScale)) {
+            mSnapshot.capture(mDrawable, mContent, mWindow, mScale);
+        }
+        return true;
+    }
+
+    @SuppressLint("WrongCall")
+    private void drawContent(Canvas canvas) {
+        boolean isAnimating = mZoomAnimator.isRunning();
+
+        if (mDrawable instanceof ViewportDrawable) {
+            // also for OnDrawListeners drawing the Drawable themselves
+            if (!mVisible.setIntersect(mWindow, mContent)) {
+                mVisible.setEmpty();
+            }
+            ((ViewportDrawable) mDrawable).setViewport(mVisible, mScale);
+        }
+
         if (mListener != null) {
             mDummy.set(mWindow);
-            canvas.save();
+            int count = canvas.save();
             mListener.onDraw(canvas, mDrawable, mMatrix, mDummy);
-            canvas.restore();
+            canvas.restoreToCount(count);
+            if (!isAnimating && mOverlays.isEmpty()) {
+                // nothing else to draw in content coordinates
+                return;
+            }
         }
 
-        canvas.save();
+        boolean snapshot = useSnapshot();
+        int count = canvas.save();
         canvas.concat(mMatrix);
-        if (mListener == null) {
+        if (snapshot) {
+            mSnapshot.draw(canvas);
+        } else if (mListener == null) {
             mDrawable.draw(canvas);
         }
+        for (int i = 0; i < mOverlays.size(); i++) {
+            mOverlays.get(i).draw(canvas, mWindow, mScale);
+        }
         if (isAnimating) {
-            mZoomAnimation.drawFrame(canvas, mFocalPoints[0], mFocalPoints[1]);
+            mZoomAnimator.drawFrame(canvas);
         }
-        canvas.restore();
+        canvas.restoreToCount(count);
     }
 
 
     @Override
     public void computeScroll() {
         if (mScroller.computeScrollOffset()) {
-            mWindow.offsetTo(mScroller.getCurrX(), mScroller.getCurrY());
-            updateMatrix(mDummy);
+            mViewport.offsetTo(mScroller.getCurrX(), mScroller.getCurrY(), true);
+            syncViewport();
+            dispatchViewportChanged();
             invalidate();
         }
     }
 
-    private boolean updateMatrix(RectF out) {
-        boolean check = false;
-        float delta;
-        final RectF c = mContent;
-        final RectF w = mWindow;
+    /**
+     * Copies the state of mViewport to mWindow, mScale and mMatrix.
+     */
+    private void syncViewport() {
+        final Viewport v = mViewport;
+        mScale = v.getScale();
+        mWindow.set(v.getLeft(), v.getTop(), v.getRight(), v.getBottom());
+        // only the size of mMappedContent is used, no need to map it through mMatrix
+        mMappedContent.set(0, 0, v.getContentWidth() * mScale, v.getContentHeight() * mScale);
+        mMatrix.setScale(v.getScaleX(), v.getScaleY());
+        mMatrix.postTranslate(v.getTransX(), v.getTransY());
+    }
 
-        if (mMappedContent.width() > mScreen.width()) {
-            // check if mWindow extends on the left or right
-            if ((delta = c.left - w.left) > 0 || ((delta = c.right - w.right) < 0)) {
-                check = true;
-                w.offset(delta, 0);
-            }
-        } else {
-            // center horizontally
-            check = true;
-            w.offsetTo((c.width() - w.width()) / 2, w.top);
-        }
-        if (mMappedContent.height() > mScreen.height()) {
-            // check if mWindow extends on the top or bottom
-            if ((delta = c.top - w.top) > 0 || ((delta = c.bottom - w.bottom) < 0)) {
-                check = true;
-                w.offset(0, delta);
-            }
-        } else {
-            // center vertically
-            check = true;
-            w.offsetTo(w.left, (c.height() - w.height()) / 2);
+    /**
+     * Called by the gesture listeners after changing mViewport: the change is
+     * applied on the next frame, together with all the others coming in until
+     * then, so high rate input costs one matrix update and one listener call
+     * per frame.
+     */
+    private void postViewportUpdate() {
+        mViewportPending = true;
+        mViewportScheduler.postFrame();
+        invalidate();
+    }
+
+    /**
+     * Applies the pending viewport change now, if any.
+     */
+    private void flushViewport() {
+        if (mViewportPending) {
+            mViewportPending = false;
+            mViewportScheduler.cancel();
+            applyViewportUpdate();
+        }
+    }
+
+    private FrameScheduler.Callback mViewportCallback = new FrameScheduler.Callback() {
+        @Override
+        public void doFrame(long frameTime) {
+            flushViewport();
         }
-        mMatrix.setRectToRect(mWindow, mScreen, ScaleToFit.FILL);
-        return check;
+    };
+
+    private void applyViewportUpdate() {
+        syncViewport();
+        for (int i = 0; i < mOverlays.size(); i++) {
+            // pick the cluster band of the new scale
+            mOverlays.get(i).setScale(mScale);
+        }
+        mZoomController.setText(ZOOM_LABEL, mScale);
+        float EPSILON = 0.001f;
+        mZoomController.setZoomInEnabled(Math.abs(mScale - mMaxScale) > EPSILON);
+        mZoomController.setZoomOutEnabled(Math.abs(mScale - mMinScale) > EPSILON);
+        dispatchViewportChanged();
+        invalidate();
     }
 
+    // the gesture listeners read mViewport, mWindow and mScale may be a frame behind
     private SimpleOnScaleGestureListener mScaleGestureListener = new SimpleOnScaleGestureListener() {
         @Override
         public boolean onScaleBegin(ScaleGestureDetector detector) {
             float x = mScaleGestureDetector.getFocusX();
             float y = mScaleGestureDetector.getFocusY();
             setFocalPoints(
-                    mWindow.left + x / mScale, 
-                    mWindow.top + y / mScale,
+                    mViewport.toContentX(x),
+                    mViewport.toContentY(y),
                     x / mScreen.width(),
                     y / mScreen.height());
+            mPrefetchLevel = -1;
+            mPinched = true;
             return true;
         }
         
         @Override
         public boolean onScale(ScaleGestureDetector detector) {
             float scaleFactor = mScaleGestureDetector.getScaleFactor();
-            float scale = mScale;
+            float scale = mViewport.getScale();
             scale *= scaleFactor;
-            if (mMinScale <= scale && scale <= MAX_SCALE) {
-                setZoom(scale, true);
+            if (mMinScale <= scale && scale <= mMaxScale) {
+                mViewport.setZoom(scale, true);
+                postViewportUpdate();
+                prefetchNextLevel(scaleFactor > 1);
             }
             return true;
         }
@@ -273,38 +1008,16 @@ public class ZoomView extends View implements OnZoomListener {
 
         @Override
         public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
-            velocityX = mMappedContent.width() > mScreen.width()? -velocityX : 0;
-            velocityY = mMappedContent.height() > mScreen.height()? -velocityY : 0;
-            if (velocityX == 0 && velocityY == 0) {
-                return false;
-            }
-
-            int minX, maxX, minY, maxY;
-            minX = minY = Integer.MIN_VALUE;
-            maxX = maxY = Integer.MAX_VALUE;
-            if (velocityX != 0) {
-                minX = 0;
-                maxX = (int) (mContent.width() - mWindow.width());
-            }
-            if (velocityY != 0) {
-                minY = 0;
-                maxY = (int) (mContent.height() - mWindow.height());
-            }
-            mScroller.fling((int) mWindow.left, (int) mWindow.top, (int) velocityX, (int) velocityY, minX, maxX, minY, maxY);
-            invalidate();
-            return true;
+            return fling(velocityX, velocityY);
         }
         
         @Override
         public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-            distanceX = mMappedContent.width() > mScreen.width()? distanceX / mScale : 0;
-            distanceY = mMappedContent.height() > mScreen.height()? distanceY / mScale : 0;
-            if (distanceX == 0 && distanceY == 0) {
+            // past the edges the content follows the finger at half speed
+            if (!mViewport.scroll(distanceX, distanceY, OVERSCROLL, OVERSCROLL_RESISTANCE)) {
                 return false;
             }
-            mWindow.offset(distanceX, distanceY);
-            updateMatrix(mWindow);
-            invalidate();
+            postViewportUpdate();
             return true;
         }
 
@@ -317,16 +1030,37 @@ public class ZoomView extends View implements OnZoomListener {
 //            mPoints[2] = e.getX() / mScreen.width(); 
 //            mPoints[3] = e.getY() / mScreen.height();
 //            inverse.mapPoints(mPoints, 0, mPoints, 0, 1);
-            setFocalPoints(
-                    mWindow.left + e.getX() / mScale,
-                    mWindow.top + e.getY() / mScale, 
-                    e.getX() / mScreen.width(),
-                    e.getY() / mScreen.height());
-
-            mZoomAnimation.start(mScale, mScale < (MAX_SCALE + mMinScale) / 2, mMinScale, MAX_SCALE);
+            float x = mWindow.left + e.getX() / mScale;
+            float y = mWindow.top + e.getY() / mScale;
+            float target = mScale < (mMaxScale + mMinScale) / 2? mMaxScale : mMinScale;
+            // zoom while bringing the tapped point to the center
+            mZoomAnimator.start(mScale, target, x, y,
+                    e.getX() / mScreen.width(), e.getY() / mScreen.height(), 0.5f, 0.5f);
+            setFocalPoints(x, y, 0.5f, 0.5f);
+            mPrefetchLevel = -1;
+            prefetchZoom(target);
             return true;
         }
 
+        @Override
+        public boolean onSingleTapConfirmed(MotionEvent e) {
+            if (mOverlays.isEmpty()) {
+                return false;
+            }
+            flushViewport();
+            // screen to content coordinates
+            mMatrix.invert(mInverse);
+            mPoint[0] = e.getX();
+            mPoint[1] = e.getY();
+            mInverse.mapPoints(mPoint);
+            for (int i = mOverlays.size() - 1; i >= 0; i--) {
+                if (mOverlays.get(i).onTap(mPoint[0], mPoint[1], mScale)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public void onLongPress(MotionEvent e) {
             if (!mScaleGestureDetector.isInProgress()) {
@@ -344,46 +1078,134 @@ public class ZoomView extends View implements OnZoomListener {
         final float FACTOR = 0.5f;
         final float NUM_STEPS = 10;
 
+        flushViewport();
         setFocalPoints(
                 mWindow.left + mWindow.width() * FACTOR,
                 mWindow.top + mWindow.height() * FACTOR,
                 FACTOR,
                 FACTOR);
-        float delta = (MAX_SCALE - mMinScale) / NUM_STEPS;
+        float delta = (mMaxScale - mMinScale) / NUM_STEPS;
         setZoom(mScale + (zoomIn? delta : -delta), true);
     }
 
+    /**
+     * Flings with velocities in screen pixels per second.
+     */
+    private boolean fling(float velocityX, float velocityY) {
+        boolean flingX = mMappedContent.width() > mScreen.width();
+        boolean flingY = mMappedContent.height() > mScreen.height();
+        velocityX = flingX? -velocityX / mScale : 0;
+        velocityY = flingY? -velocityY / mScale : 0;
+        if (velocityX == 0 && velocityY == 0) {
+            return false;
+        }
+
+        float left = mWindow.left;
+        float top = mWindow.top;
+        mScroller.setScale(mScale);
+        mScroller.fling(left, top, velocityX, velocityY,
+                flingX? 0 : left, flingX? mContent.width() - mWindow.width() : left,
+                flingY? 0 : top, flingY? mContent.height() - mWindow.height() : top,
+                OVERSCROLL * mWindow.width(), OVERSCROLL * mWindow.height());
+        prefetchFling();
+        invalidate();
+        return true;
+    }
+
+    private void springBack() {
+        float left = mWindow.left;
+        float top = mWindow.top;
+        boolean x = mMappedContent.width() > mScreen.width();
+        boolean y = mMappedContent.height() > mScreen.height();
+        mScroller.setScale(mScale);
+        if (mScroller.springBack(left, top,
+                x? 0 : left, x? mContent.width() - mWindow.width() : left,
+                y? 0 : top, y? mContent.height() - mWindow.height() : top)) {
+            invalidate();
+        }
+    }
+
+    private void prefetchFling() {
+        TiledDrawable tiled = getTiledDrawable();
+        if (tiled == null) {
+            return;
+        }
+        tiled.cancelPrefetch();
+        int level = tiled.getPyramid().levelForScale(mScale);
+        // a fling moves along a straight line: sample it up to the landing point
+        float x0 = mScroller.getStartX();
+        float y0 = mScroller.getStartY();
+        float dx = mScroller.getFinalX() - x0;
+        float dy = mScroller.getFinalY() - y0;
+        float w = mWindow.width();
+        float h = mWindow.height();
+        for (int i = 1; i <= FLING_PREFETCH_STEPS; i++) {
+            float fraction = (float) i / FLING_PREFETCH_STEPS;
+            float left = x0 + dx * fraction;
+            float top = y0 + dy * fraction;
+            mPrefetch.set(left, top, left + w, top + h);
+            tiled.prefetch(mPrefetch, level, i);
+        }
+    }
+
+    private void prefetchNextLevel(boolean zoomIn) {
+        TiledDrawable tiled = getTiledDrawable();
+        if (tiled == null) {
+            return;
+        }
+        ImagePyramid pyramid = tiled.getPyramid();
+        int level = pyramid.levelForScale(mViewport.getScale());
+        float scale;
+        if (zoomIn) {
+            if (level == 0) {
+                return;
+            }
+            // just above the scale where the finer level kicks in
+            scale = 1.01f / (1 << level);
+        } else {
+            scale = 1f / (2 << level);
+        }
+        scale = Math.min(mMaxScale, Math.max(mMinScale, scale));
+        if (pyramid.levelForScale(scale) != level) {
+            prefetchZoom(scale);
+        }
+    }
+
+    private void prefetchZoom(float scale) {
+        TiledDrawable tiled = getTiledDrawable();
+        if (tiled == null) {
+            return;
+        }
+        int level = tiled.getPyramid().levelForScale(scale);
+        if (level == mPrefetchLevel) {
+            return;
+        }
+        mPrefetchLevel = level;
+        // the window at the given scale around the current focal point
+        float w = mScreen.width() / scale;
+        float h = mScreen.height() / scale;
+        float left = mViewport.getFocalX() - w * mViewport.getFocalFractionX();
+        float top = mViewport.getFocalY() - h * mViewport.getFocalFractionY();
+        mPrefetch.set(left, top, left + w, top + h);
+        tiled.prefetch(mPrefetch, level, 0);
+    }
+
+    /**
+     * Called by the ZoomAnimator once per frame.
+     */
+    void setViewport(float scale, float x, float y, float fractionX, float fractionY) {
+        setFocalPoints(x, y, fractionX, fractionY);
+        setZoom(scale, false);
+    }
+
     private void setFocalPoints(float x, float y, float fractionX, float fractionY) {
-        mFocalPoints[0] = x;
-        mFocalPoints[1] = y;
-        mFocalPoints[2] = fractionX;
-        mFocalPoints[3] = fractionY;
+        mViewport.setFocalPoint(x, y, fractionX, fractionY);
     }
 
     public void setZoom(float zoom, boolean adjust) {
-        mScale = zoom;
-        if (adjust) {
-            mScale = Math.min(MAX_SCALE, Math.max(mMinScale, mScale));
-        }
-        float w = mScreen.width() / mScale;
-        float h = mScreen.height() / mScale;
-        // mFocalPoints[0, 1] focal in absolute pixels
-        // mFocalPoints[2, 3] focal fraction of window size [0..1]
-        float left = mFocalPoints[0] - w * mFocalPoints[2];
-        float top = mFocalPoints[1] - h * mFocalPoints[3];
-        mWindow.set(left, top, left + w, top + h);
-
-        // set mMatrix scaling
-        mMatrix.setRectToRect(mWindow, mScreen, ScaleToFit.FILL);
-        mMatrix.mapRect(mMappedContent, mContent);
-        
-        updateMatrix(mWindow);
-        invalidate();
-        
-        mZoomController.setText("Zoom: ", mScale);
-        float EPSILON = 0.001f;
-        mZoomController.setZoomInEnabled(Math.abs(mScale - MAX_SCALE) > EPSILON);
-        mZoomController.setZoomOutEnabled(Math.abs(mScale - mMinScale) > EPSILON);
-        invalidate();
+        mViewport.setZoom(zoom, adjust);
+        // applied right away, together with a pending gesture change
+        mViewportPending = true;
+        flushViewport();
     }
 }
@@ -0,0 +1,84 @@
+package org.pskink.zoomview.test;
+
+import java.lang.management.ManagementFactory;
+
+import org.pskink.zoomview.view.PercentLabel;
+import org.pskink.zoomview.view.Viewport;
+
+/**
+ * Checks that the per event and per frame paths of {@link Viewport} (pan, pinch
+ * zoom and fling steps) and the zoom label of ScrollZoomButtonsController do
+ * not allocate, using the per thread allocation counter of HotSpot's
+ * ThreadMXBean. main() exits with 1 if a path allocates.
+ */
+public class AllocationTest {
+    private static final int WARMUP = 200000;
+    private static final int RUNS = 100000;
+    // slack for the counter itself, far below one object per run
+    private static final long MAX_BYTES = 1024;
+
+    private static com.sun.management.ThreadMXBean sBean;
+
+    public static void main(String[] args) {
+        sBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!sBean.isThreadAllocatedMemorySupported()) {
+            System.out.println("thread allocation counting not supported, skipped");
+            return;
+        }
+        sBean.setThreadAllocatedMemoryEnabled(true);
+        final Viewport v = newViewport();
+        Check.run("pan", () -> checkNoAllocation(i -> {
+            float d = (i & 64) == 0? 12 : -12;
+            v.scroll(d, d * 0.5f, 0.1f, 0.5f);
+        }));
+        Check.run("zoom", () -> checkNoAllocation(i -> {
+            // ZoomView.mScaleGestureListener: onScaleBegin + onScale
+            float x = v.getScreenWidth() * 0.3f;
+            float y = v.getScreenHeight() * 0.6f;
+            v.setFocalPoint(v.toContentX(x), v.toContentY(y),
+                    x / v.getScreenWidth(), y / v.getScreenHeight());
+            v.setZoom(v.getScale() * ((i & 32) == 0? 1.02f : 1 / 1.02f), true);
+        }));
+        Check.run("flingStep", () -> checkNoAllocation(i -> {
+            // ZoomView.computeScroll
+            float maxX = v.getContentWidth() - (v.getRight() - v.getLeft());
+            float maxY = v.getContentHeight() - (v.getBottom() - v.getTop());
+            v.offsetTo(maxX * (i & 255) / 255, maxY * (i & 255) / 255, true);
+        }));
+        final PercentLabel label = new PercentLabel();
+        Check.run("zoomLabel", () -> checkNoAllocation(i -> {
+            // ScrollZoomButtonsController.setText on every zoom step, up to 1234%
+            label.set("Zoom: ", 0.05f + (i % 1230) / 100f);
+        }));
+        Check.exit();
+    }
+
+    interface Step {
+        void step(int i);
+    }
+
+    private static Viewport newViewport() {
+        Viewport v = new Viewport();
+        v.setContentSize(20000, 15000);
+        v.setScreenSize(1080, 1920);
+        float minScale = Math.min(1080 / 20000f, 1920 / 15000f);
+        v.setScaleRange(minScale, 1);
+        v.reset(minScale);
+        v.setFocalPoint(10000, 7500, 0.5f, 0.5f);
+        v.setZoom(1, true);
+        return v;
+    }
+
+    private static void checkNoAllocation(Step step) {
+        for (int i = 0; i < WARMUP; i++) {
+            step.step(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = sBean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < RUNS; i++) {
+            step.step(i);
+        }
+        long bytes = sBean.getThreadAllocatedBytes(thread) - before;
+        Check.atMost(bytes, MAX_BYTES, "bytes allocated by " + RUNS + " runs");
+    }
+}
@@ -0,0 +1,60 @@
+package org.pskink.zoomview.test;
+
+/**
+ * Minimal assertions for the plain JVM tests, no test framework needed.
+ */
+public class Check {
+    private static int sFailures;
+
+    private Check() {
+    }
+
+    /**
+     * Runs one test, reporting its first failed check.
+     */
+    public static void run(String name, Runnable test) {
+        try {
+            test.run();
+            System.out.println("ok   " + name);
+        } catch (AssertionError e) {
+            sFailures++;
+            System.out.println("FAIL " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exits with 1 if any test failed, so a build script stops.
+     */
+    public static void exit() {
+        if (sFailures > 0) {
+            System.out.println(sFailures + " failed");
+            System.exit(1);
+        }
+    }
+
+    public static void near(float actual, float expected, String what) {
+        // relative for large values, e.g. content coordinates of big scans
+        float tolerance = 1e-3f * Math.max(1, Math.abs(expected));
+        if (!(Math.abs(actual - expected) <= tolerance)) {
+            throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    public static void atLeast(float actual, float min, String what) {
+        if (!(actual >= min)) {
+            throw new AssertionError(what + ": " + actual + " < " + min);
+        }
+    }
+
+    public static void atMost(float actual, float max, String what) {
+        if (!(actual <= max)) {
+            throw new AssertionError(what + ": " + actual + " > " + max);
+        }
+    }
+
+    public static void isTrue(boolean value, String what) {
+        if (!value) {
+            throw new AssertionError(what);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.pskink.zoomview.test;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import org.pskink.zoomview.view.PercentLabel;
+
+/**
+ * Checks that {@link PercentLabel} formats like
+ * NumberFormat.getPercentInstance() in every available locale. main() exits
+ * with 1 if any test failed.
+ */
+public class PercentLabelTest {
+    private static final String LABEL = "Zoom: ";
+
+    public static void main(String[] args) {
+        PercentLabelTest t = new PercentLabelTest();
+        Check.run("matchesNumberFormat", t::matchesNumberFormat);
+        Check.run("reportsChanges", t::reportsChanges);
+        Check.exit();
+    }
+
+    void matchesNumberFormat() {
+        for (Locale locale : Locale.getAvailableLocales()) {
+            NumberFormat format = NumberFormat.getPercentInstance(locale);
+            PercentLabel label = new PercentLabel(format);
+            for (int percent = 0; percent < 100000; percent += 7) {
+                float scale = percent / 100f;
+                label.set(LABEL, scale);
+                String expected = LABEL + format.format(Math.round(scale * 100) / 100.0);
+                Check.isTrue(expected.equals(label.toString()),
+                        locale + ": expected \"" + expected + "\", got \"" + label + "\"");
+            }
+        }
+    }
+
+    void reportsChanges() {
+        PercentLabel label = new PercentLabel(NumberFormat.getPercentInstance(Locale.US));
+        Check.isTrue(label.set(LABEL, 0.5f), "first");
+        Check.isTrue(!label.set(LABEL, 0.501f), "same percent");
+        Check.isTrue(label.set(LABEL, 0.51f), "new percent");
+        Check.isTrue(label.set("Scale: ", 0.51f), "new label");
+    }
+}
@@ -0,0 +1,176 @@
+package org.pskink.zoomview.test;
+
+import java.util.Random;
+
+import org.pskink.zoomview.view.Viewport;
+
+/**
+ * Property and parity tests of the ZoomView {@link Viewport}, run over random
+ * content sizes, screen sizes, scales and gestures from a fixed seed. main()
+ * exits with 1 if any test failed.
+ */
+public class ViewportTest {
+    private static final long SEED = 0x5a56L;
+    private static final int RUNS = 2000;
+    private static final float EPSILON = 1e-3f;
+
+    // float rounding of content coordinates, e.g. of a 20000 pixels wide scan
+    private static float tolerance(Viewport v) {
+        return EPSILON + 8 * Math.ulp(Math.max(v.getContentWidth(), v.getContentHeight()));
+    }
+
+    private final Random mRandom = new Random(SEED);
+
+    public static void main(String[] args) {
+        ViewportTest t = new ViewportTest();
+        Check.run("clampKeepsWindowInside", t::clampKeepsWindowInside);
+        Check.run("clampCentersSmallAxis", t::clampCentersSmallAxis);
+        Check.run("zoomKeepsFocalPoint", t::zoomKeepsFocalPoint);
+        Check.run("scrollStopsAtOverscroll", t::scrollStopsAtOverscroll);
+        Check.run("matrixMatchesRectToRect", t::matrixMatchesRectToRect);
+        Check.run("resetCenters", t::resetCenters);
+        Check.exit();
+    }
+
+    /**
+     * A configured viewport at a random scale in its range, like
+     * ZoomView.configure() with FIT followed by a zoom.
+     */
+    private Viewport randomViewport() {
+        float cw = 100 + mRandom.nextInt(20000);
+        float ch = 100 + mRandom.nextInt(20000);
+        float sw = 200 + mRandom.nextInt(2000);
+        float sh = 200 + mRandom.nextInt(2000);
+        float minScale = Math.min(sw / cw, sh / ch);
+        float maxScale = Math.max(minScale, 1 + mRandom.nextInt(3));
+        Viewport v = new Viewport();
+        v.setContentSize(cw, ch);
+        v.setScreenSize(sw, sh);
+        v.setScaleRange(minScale, maxScale);
+        v.reset(minScale);
+        v.setFocalPoint(mRandom.nextFloat() * cw, mRandom.nextFloat() * ch,
+                mRandom.nextFloat(), mRandom.nextFloat());
+        v.setZoom(minScale + mRandom.nextFloat() * (maxScale - minScale), true);
+        return v;
+    }
+
+    void clampKeepsWindowInside() {
+        for (int i = 0; i < RUNS; i++) {
+            Viewport v = randomViewport();
+            float w = v.getRight() - v.getLeft();
+            float h = v.getBottom() - v.getTop();
+            // anywhere, also far outside the content
+            v.offsetTo((mRandom.nextFloat() * 3 - 1) * v.getContentWidth(),
+                    (mRandom.nextFloat() * 3 - 1) * v.getContentHeight(), true);
+            v.clamp(false);
+            if (v.canScrollX()) {
+                Check.atLeast(v.getLeft(), -EPSILON, "left");
+                Check.atMost(v.getRight(), v.getContentWidth() + EPSILON, "right");
+            }
+            if (v.canScrollY()) {
+                Check.atLeast(v.getTop(), -EPSILON, "top");
+                Check.atMost(v.getBottom(), v.getContentHeight() + EPSILON, "bottom");
+            }
+            Check.near(v.getRight() - v.getLeft(), w, "window width");
+            Check.near(v.getBottom() - v.getTop(), h, "window height");
+        }
+    }
+
+    void clampCentersSmallAxis() {
+        for (int i = 0; i < RUNS; i++) {
+            Viewport v = randomViewport();
+            v.offsetTo(mRandom.nextFloat() * v.getContentWidth(),
+                    mRandom.nextFloat() * v.getContentHeight(), true);
+            v.clamp(false);
+            if (!v.canScrollX()) {
+                Check.near((v.getLeft() + v.getRight()) / 2, v.getContentWidth() / 2, "center x");
+            }
+            if (!v.canScrollY()) {
+                Check.near((v.getTop() + v.getBottom()) / 2, v.getContentHeight() / 2, "center y");
+            }
+        }
+    }
+
+    void zoomKeepsFocalPoint() {
+        for (int i = 0; i < RUNS; i++) {
+            Viewport v = randomViewport();
+            float fx = mRandom.nextFloat();
+            float fy = mRandom.nextFloat();
+            float x = v.toContentX(fx * v.getScreenWidth());
+            float y = v.toContentY(fy * v.getScreenHeight());
+            v.setFocalPoint(x, y, fx, fy);
+            v.setZoom(v.getMinScale() + mRandom.nextFloat() * (v.getMaxScale() - v.getMinScale()), true);
+            // clamping may move the window, only then the focal point moves too
+            if (v.canScrollX() && v.getLeft() > EPSILON && v.getRight() < v.getContentWidth() - EPSILON) {
+                Check.near(v.getLeft() + fx * (v.getRight() - v.getLeft()), x, "focal x");
+            }
+            if (v.canScrollY() && v.getTop() > EPSILON && v.getBottom() < v.getContentHeight() - EPSILON) {
+                Check.near(v.getTop() + fy * (v.getBottom() - v.getTop()), y, "focal y");
+            }
+        }
+    }
+
+    void scrollStopsAtOverscroll() {
+        for (int i = 0; i < RUNS; i++) {
+            Viewport v = randomViewport();
+            float overscroll = mRandom.nextFloat() * 0.5f;
+            float resistance = 0.1f + mRandom.nextFloat() * 0.9f;
+            float w = v.getRight() - v.getLeft();
+            float h = v.getBottom() - v.getTop();
+            float tol = tolerance(v);
+            for (int j = 0; j < 50; j++) {
+                float d = v.getScreenWidth() * (mRandom.nextFloat() * 4 - 2);
+                v.scroll(d, d * (mRandom.nextFloat() * 2 - 1), overscroll, resistance);
+                if (v.canScrollX()) {
+                    Check.atLeast(v.getLeft(), -overscroll * w - tol, "left overscroll");
+                    Check.atMost(v.getRight(), v.getContentWidth() + overscroll * w + tol, "right overscroll");
+                }
+                if (v.canScrollY()) {
+                    Check.atLeast(v.getTop(), -overscroll * h - tol, "top overscroll");
+                    Check.atMost(v.getBottom(), v.getContentHeight() + overscroll * h + tol, "bottom overscroll");
+                }
+            }
+        }
+    }
+
+    void matrixMatchesRectToRect() {
+        float[] expected = new float[4];
+        for (int i = 0; i < RUNS; i++) {
+            Viewport v = randomViewport();
+            v.scroll(mRandom.nextFloat() * 400 - 200, mRandom.nextFloat() * 400 - 200, 0.1f, 0.5f);
+            rectToRectFill(v.getLeft(), v.getTop(), v.getRight(), v.getBottom(),
+                    v.getScreenWidth(), v.getScreenHeight(), expected);
+            Check.near(v.getScaleX(), expected[0], "scaleX");
+            Check.near(v.getScaleY(), expected[1], "scaleY");
+            Check.near(v.getTransX(), expected[2], "transX");
+            Check.near(v.getTransY(), expected[3], "transY");
+            // and the window corners land on the screen corners
+            Check.near(v.getLeft() * v.getScaleX() + v.getTransX(), 0, "mapped left");
+            Check.near(v.getBottom() * v.getScaleY() + v.getTransY(), v.getScreenHeight(), "mapped bottom");
+        }
+    }
+
+    void resetCenters() {
+        for (int i = 0; i < RUNS; i++) {
+            Viewport v = randomViewport();
+            float scale = v.getMinScale() + mRandom.nextFloat() * (v.getMaxScale() - v.getMinScale());
+            v.reset(scale);
+            Check.near(v.getScale(), scale, "scale");
+            Check.near((v.getLeft() + v.getRight()) / 2, v.getContentWidth() / 2, "center x");
+            Check.near((v.getTop() + v.getBottom()) / 2, v.getContentHeight() / 2, "center y");
+        }
+    }
+
+    /**
+     * Matrix.setRectToRect(src, dst, ScaleToFit.FILL) as done by the Android
+     * Matrix, dst at the origin: out = scaleX, scaleY, transX, transY.
+     */
+    private static void rectToRectFill(float l, float t, float r, float b, float dw, float dh, float[] out) {
+        float sx = dw / (r - l);
+        float sy = dh / (b - t);
+        out[0] = sx;
+        out[1] = sy;
+        out[2] = 0 - l * sx;
+        out[3] = 0 - t * sy;
+    }
+}